@@ -3,17 +3,42 @@ package com.kineticdata.examples.javalin;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Session;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kineticdata.examples.javalin.accesslog.AccessLog;
+import com.kineticdata.examples.javalin.controllers.BatchController;
+import com.kineticdata.examples.javalin.controllers.BlockingWidgetController;
+import com.kineticdata.examples.javalin.controllers.ExportController;
+import com.kineticdata.examples.javalin.controllers.ImportController;
+import com.kineticdata.examples.javalin.controllers.MetricsController;
 import com.kineticdata.examples.javalin.controllers.WidgetController;
+import com.kineticdata.examples.javalin.controllers.WidgetCountController;
+import com.kineticdata.examples.javalin.controllers.WidgetEventController;
+import com.kineticdata.examples.javalin.counts.WidgetCountReconciler;
+import com.kineticdata.examples.javalin.daos.BlockingWidgetDao;
 import com.kineticdata.examples.javalin.daos.WidgetDao;
+import com.kineticdata.examples.javalin.deadlines.DeadlineExceededException;
+import com.kineticdata.examples.javalin.events.WidgetEventBus;
+import com.kineticdata.examples.javalin.search.WidgetSearchIndex;
+import io.javalin.HttpResponseException;
 import io.javalin.Javalin;
 import static io.javalin.apibuilder.ApiBuilder.delete;
 import static io.javalin.apibuilder.ApiBuilder.get;
 import static io.javalin.apibuilder.ApiBuilder.path;
 import static io.javalin.apibuilder.ApiBuilder.post;
 import static io.javalin.apibuilder.ApiBuilder.put;
+import static io.javalin.apibuilder.ApiBuilder.ws;
 import io.javalin.json.JavalinJackson;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jetty.server.Request;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,6 +47,29 @@ public class ExampleApp {
     private static final Logger LOGGER = LoggerFactory.getLogger(ExampleApp.class);
     private static final ImmutableMap VERSION_PAYLOAD = ImmutableMap.of("version", "v1.0.0-SNAPSHOT");
     
+    /**
+     * The system property used to select how the widget actions are executed: "async" (the 
+     * default) chains CompletableFutures over the asynchronous WidgetDao, while "virtual" runs 
+     * straight-line blocking code against the BlockingWidgetDao on a virtual thread per request.
+     */
+    public static final String EXECUTION_MODE_PROPERTY = "executionMode";
+    public static final String EXECUTION_MODE_ASYNC = "async";
+    public static final String EXECUTION_MODE_VIRTUAL = "virtual";
+    
+    /**
+     * The system properties used to configure the access log: the file that is written to and the 
+     * fraction of (non-error) requests that are recorded.
+     */
+    public static final String ACCESS_LOG_PATH_PROPERTY = "accessLog.path";
+    public static final String ACCESS_LOG_SAMPLE_RATE_PROPERTY = "accessLog.sampleRate";
+    
+    /**
+     * The system property used to configure how often (in minutes) the widget counts are 
+     * reconciled against the widgets table.
+     */
+    public static final String WIDGET_COUNT_RECONCILE_MINUTES_PROPERTY = 
+        "widgetCounts.reconcileMinutes";
+    
     public static void main(String[] args) throws Exception {
         start(null);
     }
@@ -43,11 +91,81 @@ public class ExampleApp {
             // Prepare the Cassandra cluster and session objects
             Cluster cluster = Cluster.builder().addContactPoint("127.0.0.1").build();
             Session session = cluster.connect("cassandra_javalin_example");
+            // Prepare the access log (which is written by a background thread)
+            AccessLog accessLog = openAccessLog();
         ) {
             // Prepare the daos
             WidgetDao widgetDao = new WidgetDao(session);
+            // Prepare the widget event bus (the timer, which is also used for heartbeats, removes
+            // cancelled write timeouts rather than retaining them until they would have fired)
+            ScheduledThreadPoolExecutor widgetEventTimer = 
+                new ScheduledThreadPoolExecutor(1, daemonThreadFactory("widget-event-timers-%d"));
+            widgetEventTimer.setRemoveOnCancelPolicy(true);
+            WidgetEventBus widgetEventBus = new WidgetEventBus(
+                WidgetEventBus.DEFAULT_CAPACITY,
+                WidgetEventBus.DEFAULT_WRITE_TIMEOUT_MILLIS,
+                WidgetEventBus.DEFAULT_IDLE_TIMEOUT_MILLIS,
+                Executors.newFixedThreadPool(4, daemonThreadFactory("widget-events-%d")),
+                widgetEventTimer);
+            widgetDao.addListener(widgetEventBus);
+            // Prepare the widget search index (which is built in the background, retrying failed
+            // builds after 1 second and then backing off to at most once a minute)
+            WidgetSearchIndex widgetSearchIndex = new WidgetSearchIndex();
+            widgetDao.addListener(widgetSearchIndex);
+            widgetSearchIndex
+                .build(
+                    widgetDao,
+                    4,
+                    Executors.newSingleThreadScheduledExecutor(
+                        daemonThreadFactory("widget-search-index-%d")),
+                    TimeUnit.SECONDS.toMillis(1),
+                    TimeUnit.MINUTES.toMillis(1))
+                .thenRun(() -> LOGGER.info("Built the widget search index."));
+            // Periodically repair any drift in the widget counts (a non-positive interval disables
+            // the scheduled runs, leaving only the admin endpoint)
+            WidgetCountReconciler widgetCountReconciler = new WidgetCountReconciler(
+                widgetDao,
+                4,
+                Executors.newSingleThreadScheduledExecutor(
+                    daemonThreadFactory("widget-count-reconciler-%d")));
+            long reconcileMinutes = Long.getLong(WIDGET_COUNT_RECONCILE_MINUTES_PROPERTY, 60);
+            if (reconcileMinutes > 0) {
+                widgetCountReconciler.schedule(reconcileMinutes);
+            } else {
+                LOGGER.info("Scheduled widget count reconciliation is disabled.");
+            }
+            // Prepare the timer used to enforce request deadlines (most deadlines are cancelled once
+            // the request completes, so remove them rather than retaining them until they expire)
+            ScheduledThreadPoolExecutor deadlineExecutor = 
+                new ScheduledThreadPoolExecutor(1, daemonThreadFactory("request-deadlines-%d"));
+            deadlineExecutor.setRemoveOnCancelPolicy(true);
             // Prepare the controllers
-            WidgetController widgets = new WidgetController(widgetDao);
+            String executionMode = System.getProperty(EXECUTION_MODE_PROPERTY, EXECUTION_MODE_ASYNC);
+            WidgetController widgets = EXECUTION_MODE_VIRTUAL.equals(executionMode)
+                ? new BlockingWidgetController(
+                    widgetDao, 
+                    widgetSearchIndex, 
+                    deadlineExecutor,
+                    new BlockingWidgetDao(session, widgetDao), 
+                    virtualThreadExecutor())
+                : new WidgetController(widgetDao, widgetSearchIndex, deadlineExecutor);
+            LOGGER.info("Using the "+executionMode+" execution mode.");
+            BatchController batches = new BatchController(widgetDao, deadlineExecutor);
+            ExportController exports = new ExportController(
+                widgetDao,
+                Executors.newCachedThreadPool(daemonThreadFactory("widget-exports-%d")));
+            ImportController imports = new ImportController(widgetDao);
+            WidgetCountController widgetCounts = new WidgetCountController(widgetCountReconciler);
+            MetricsController metrics = new MetricsController(
+                widgetDao,
+                accessLog,
+                widgetSearchIndex,
+                widgetCountReconciler);
+            WidgetEventController widgetEvents = 
+                new WidgetEventController(
+                    widgetEventBus,
+                    widgetEventTimer,
+                    Executors.newCachedThreadPool(daemonThreadFactory("widget-event-writers-%d")));
             
             // Configure Javalin
             javalin
@@ -55,17 +173,20 @@ public class ExampleApp {
                 .defaultContentType("application/json")
                 .enableCaseSensitiveUrls()
                 .before(context -> {
-                    context.attribute("start", System.currentTimeMillis());
+                    context.attribute("start", System.nanoTime());
                 })
-                .after(context -> {
-                    long duration = System.currentTimeMillis()-(Long)context.attribute("start");
-                    String queryString = (context.queryString() == null)
-                        ? "" 
-                        : "?"+context.queryString();
-                    LOGGER.info(
-                        context.method()+" "+
-                        context.path()+queryString+" "+ 
-                        context.status()+" ("+duration+"ms)");
+                // The request logger is called once the result has been written (unlike after 
+                // handlers), so the number of bytes written is known
+                .requestLogger((context, executionTimeMs) -> {
+                    Long start = context.attribute("start");
+                    Request request = Request.getBaseRequest(context.req);
+                    accessLog.record(
+                        context.method(),
+                        context.endpointHandlerPath(),
+                        context.path(),
+                        context.status(),
+                        (start == null) ? -1 : System.nanoTime() - start,
+                        (request == null) ? -1 : request.getResponse().getHttpOutput().getWritten());
                 })
                 .routes(() -> {
                     path("/app/api/v1", () -> {
@@ -76,9 +197,24 @@ public class ExampleApp {
                             context.result(result);
                         });
                         
+                        path("/admin", () -> {
+                            get("/widgets/export", exports::export);
+                            post("/widgets/counts/reconcile", widgetCounts::reconcile);
+                            get("/metrics/paging", metrics::paging);
+                            get("/metrics/access-log", metrics::accessLog);
+                            get("/metrics/search-index", metrics::searchIndex);
+                            get("/metrics/widget-counts", metrics::widgetCounts);
+                        });
+                        
                         path("/tenants/:tenantKey", () -> {
+                            post("/batch", batches::batch);
                             get("/widgets", widgets::list);
                             post("/widgets", widgets::create);
+                            get("/widgets/count", widgets::count);
+                            post("/widgets/bulk", imports::bulk);
+                            post("/widgets/import", imports::ndjson);
+                            get("/widgets/events", widgetEvents::stream);
+                            ws("/widgets/events", widgetEvents::socket);
                             get("/widgets/:key", widgets::retrieve);
                             put("/widgets/:key", widgets::update);
                             delete("/widgets/:key", widgets::delete);
@@ -91,10 +227,16 @@ public class ExampleApp {
                     if (e instanceof CompletionException && e.getCause() instanceof Exception) {
                         e = (Exception)e.getCause();
                     }
-                    // Log the exception
-                    LOGGER.error("There was a problem handling the request.", e);
-                    // Set the results
-                    context.status(500);
+                    // Set the results (using the status of Javalin's HTTP response exceptions)
+                    if (e instanceof HttpResponseException) {
+                        context.status(((HttpResponseException)e).getStatus());
+                    } else if (e instanceof DeadlineExceededException) {
+                        context.status(504);
+                    } else {
+                        // Log the exception
+                        LOGGER.error("There was a problem handling the request.", e);
+                        context.status(500);
+                    }
                     context.json(ImmutableMap.of("error", e.getMessage()));
                 })
                 .start();
@@ -115,4 +257,40 @@ public class ExampleApp {
         }
     }
     
+    private static AccessLog openAccessLog() {
+        // A log file that can't be opened (such as when the directory isn't writable) disables
+        // the access log rather than stopping the server from starting
+        Path path = Paths.get(System.getProperty(ACCESS_LOG_PATH_PROPERTY, "logs/access.log"));
+        try {
+            return new AccessLog(
+                path,
+                AccessLog.DEFAULT_CAPACITY,
+                Double.parseDouble(System.getProperty(ACCESS_LOG_SAMPLE_RATE_PROPERTY, "1")),
+                AccessLog.DEFAULT_MAX_FILE_BYTES,
+                AccessLog.DEFAULT_MAX_FILES);
+        } catch (IOException e) {
+            LOGGER.warn("The access log could not be opened at "+path+", so requests will not be "
+                +"logged.", e);
+            return AccessLog.disabled();
+        }
+    }
+    
+    private static ExecutorService virtualThreadExecutor() {
+        // Virtual threads require Java 21, so look the factory method up reflectively to allow the
+        // project to continue to be built for (and run on) older JVMs
+        try {
+            return (ExecutorService)Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("Virtual threads are not available (Java 21+ is required), using a cached "
+                +"pool of platform threads instead.");
+            return Executors.newCachedThreadPool(daemonThreadFactory("widget-actions-%d"));
+        }
+    }
+    
+    private static ThreadFactory daemonThreadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat).build();
+    }
+    
 }
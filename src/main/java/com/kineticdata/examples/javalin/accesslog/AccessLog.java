@@ -0,0 +1,438 @@
+package com.kineticdata.examples.javalin.accesslog;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An asynchronous access log that writes one JSON object per request to a rotated file.
+ *
+ * Request threads copy the fields of each request into a pre-allocated slot of a bounded ring 
+ * buffer (claiming the slot with a single compare-and-set), so recording a request never blocks,
+ * never waits on I/O and does not allocate.  If the ring is full the record is dropped (and 
+ * counted) rather than slowing the request down.  A single background thread drains the ring,
+ * formats the records into a reusable buffer and writes them to the file channel in batches, 
+ * rotating the file once it reaches the maximum size.
+ *
+ * Successful requests can be sampled to reduce the volume of the log; server errors are always
+ * recorded.
+ *
+ * A disabled access log (used when the file can't be opened) ignores every record.
+ */
+public class AccessLog implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessLog.class);
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final long DEFAULT_MAX_FILE_BYTES = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 5;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final Path path;
+    private final boolean enabled;
+    private final double sampleRate;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final Record[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(0);
+    // Only accessed by the writer thread
+    private long head = 0;
+    private final StringBuilder line = new StringBuilder(256);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private FileChannel channel;
+    private long fileBytes;
+    // Counters
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    // Lifecycle
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+
+    /**
+     * @param path the file that is written to (rotated files are suffixed with .1, .2, etc)
+     * @param capacity the number of records buffered (rounded up to a power of two)
+     * @param sampleRate the fraction of non-error requests that are recorded
+     * @param maxFileBytes the size at which the file is rotated
+     * @param maxFiles the number of rotated files that are kept
+     * @throws IOException 
+     */
+    public AccessLog(
+        Path path, 
+        int capacity, 
+        double sampleRate, 
+        long maxFileBytes, 
+        int maxFiles
+    ) throws IOException {
+        this.path = path;
+        this.enabled = true;
+        this.sampleRate = sampleRate;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        // Pre-allocate every slot of the ring
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new Record[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Record(i);
+        }
+        this.mask = size - 1;
+        // Open the file and start the writer
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        openChannel();
+        this.writerThread = new Thread(this::run, "access-log-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    private AccessLog() {
+        this.path = null;
+        this.enabled = false;
+        this.sampleRate = 0;
+        this.maxFileBytes = 0;
+        this.maxFiles = 0;
+        this.ring = new Record[0];
+        this.mask = 0;
+        this.writerThread = null;
+        this.closed = true;
+    }
+
+    /**
+     * Returns an access log that ignores every record.
+     * 
+     * @return 
+     */
+    public static AccessLog disabled() {
+        return new AccessLog();
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Records a request.  This is called on the request thread, so it only copies the values into
+     * the ring (the tenant is extracted from the path by the writer).
+     * 
+     * @param method
+     * @param route the route template (such as /tenants/:tenantKey/widgets)
+     * @param path the request path
+     * @param status
+     * @param durationNanos
+     * @param bytes 
+     */
+    public void record(
+        String method,
+        String route,
+        String path,
+        int status,
+        long durationNanos,
+        long bytes
+    ) {
+        if (closed) {
+            return;
+        }
+        // Sample the requests that did not fail on the server
+        if (
+            status < 500 
+            && sampleRate < 1 
+            && ThreadLocalRandom.current().nextDouble() >= sampleRate
+        ) {
+            sampledOut.increment();
+            return;
+        }
+        // Claim a slot (a slot is available when its sequence matches the claimed position)
+        Record record;
+        long position;
+        while (true) {
+            position = tail.get();
+            record = ring[(int)position & mask];
+            long difference = record.sequence - position;
+            if (difference < 0) {
+                // The writer hasn't freed this slot yet, so the ring is full
+                dropped.increment();
+                return;
+            }
+            if (difference == 0 && tail.compareAndSet(position, position + 1)) {
+                break;
+            }
+            // Otherwise another request claimed the position first, so try the next one
+        }
+        // Fill the slot and publish it to the writer
+        record.timestamp = System.currentTimeMillis();
+        record.method = method;
+        record.route = route;
+        record.path = path;
+        record.status = status;
+        record.durationNanos = durationNanos;
+        record.bytes = bytes;
+        record.sequence = position + 1;
+        recorded.increment();
+    }
+
+    public ImmutableMap<String,Object> getMetrics() {
+        return ImmutableMap.<String,Object>builder()
+            .put("enabled", enabled)
+            .put("recorded", recorded.sum())
+            .put("sampledOut", sampledOut.sum())
+            .put("dropped", dropped.sum())
+            .put("written", written.sum())
+            .put("rotations", rotations.sum())
+            .put("writeErrors", writeErrors.sum())
+            .build();
+    }
+
+    /**
+     * Stops accepting records, writes the records that are already buffered and closes the file.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (writerThread == null) {
+            return;
+        }
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private void run() {
+        while (true) {
+            // Read closed before draining so that records published before closing are written
+            boolean closing = closed;
+            int count = drain();
+            if (count == 0) {
+                if (closing) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.error("There was a problem closing the access log.", e);
+        }
+    }
+
+    private int drain() {
+        int count = 0;
+        while (true) {
+            Record record = ring[(int)head & mask];
+            if (record.sequence != head + 1) {
+                break;
+            }
+            format(record);
+            // Free the slot for the producer that wraps around to it
+            record.method = null;
+            record.route = null;
+            record.path = null;
+            record.sequence = head + ring.length;
+            head++;
+            count++;
+            encode();
+        }
+        if (count > 0) {
+            flush();
+            written.add(count);
+        }
+        return count;
+    }
+
+    private void format(Record record) {
+        line.setLength(0);
+        line.append("{\"timestamp\":").append(record.timestamp);
+        line.append(",\"method\":");
+        appendString(record.method);
+        line.append(",\"route\":");
+        appendString(record.route);
+        line.append(",\"tenant\":");
+        appendTenant(record.route, record.path);
+        line.append(",\"path\":");
+        appendString(record.path);
+        line.append(",\"status\":").append(record.status);
+        line.append(",\"durationNanos\":").append(record.durationNanos);
+        line.append(",\"bytes\":").append(record.bytes);
+        line.append("}\n");
+    }
+
+    private void appendString(String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int)c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Appends the path segment that corresponds to the :tenantKey segment of the route (without 
+     * allocating any intermediate strings).
+     */
+    private void appendTenant(String route, String path) {
+        if (route == null || path == null) {
+            line.append("null");
+            return;
+        }
+        int routeIndex = 0;
+        int pathIndex = 0;
+        while (routeIndex < route.length() && pathIndex < path.length()) {
+            int routeEnd = segmentEnd(route, routeIndex);
+            int pathEnd = segmentEnd(path, pathIndex);
+            if (route.startsWith(":tenantKey", routeIndex) && routeEnd - routeIndex == 10) {
+                line.append('"');
+                for (int i = pathIndex; i < pathEnd; i++) {
+                    char c = path.charAt(i);
+                    if (c == '"' || c == '\\') {
+                        line.append('\\');
+                    }
+                    line.append(c);
+                }
+                line.append('"');
+                return;
+            }
+            routeIndex = routeEnd + 1;
+            pathIndex = pathEnd + 1;
+        }
+        line.append("null");
+    }
+
+    private static int segmentEnd(String value, int start) {
+        int end = value.indexOf('/', start);
+        return (end < 0) ? value.length() : end;
+    }
+
+    private void encode() {
+        // Write out the buffered lines first if this line might not fit, so that lines are never
+        // split across writes (or rotated files)
+        if (buffer.remaining() < line.length() * 3) {
+            flush();
+        }
+        CharBuffer chars = CharBuffer.wrap(line);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                flush();
+            } else {
+                break;
+            }
+        }
+        encoder.reset();
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            if (fileBytes + buffer.remaining() > maxFileBytes && fileBytes > 0) {
+                rotate();
+            }
+            while (buffer.hasRemaining()) {
+                fileBytes += channel.write(buffer);
+            }
+        } catch (IOException e) {
+            writeErrors.increment();
+            LOGGER.error("There was a problem writing the access log.", e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void rotate() throws IOException {
+        channel.close();
+        // Shift the rotated files (access.log.1 becomes access.log.2, etc) and discard the oldest
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path source = rotatedPath(i);
+            if (Files.exists(source)) {
+                Files.move(source, rotatedPath(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(path, rotatedPath(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(path);
+        }
+        openChannel();
+        rotations.increment();
+    }
+
+    private Path rotatedPath(int index) {
+        return path.resolveSibling(path.getFileName()+"."+index);
+    }
+
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(
+            path, 
+            StandardOpenOption.CREATE, 
+            StandardOpenOption.WRITE, 
+            StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * A reusable slot of the ring.  The sequence is the position (plus one) of the record once it
+     * has been published, and the next position that may claim the slot once it has been written.
+     */
+    private static class Record {
+        private volatile long sequence;
+        private long timestamp;
+        private String method;
+        private String route;
+        private String path;
+        private int status;
+        private long durationNanos;
+        private long bytes;
+
+        public Record(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+}
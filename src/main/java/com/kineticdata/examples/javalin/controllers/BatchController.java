@@ -0,0 +1,304 @@
+package com.kineticdata.examples.javalin.controllers;
+
+import com.google.common.collect.ImmutableMap;
+import com.kineticdata.examples.javalin.daos.WidgetDao;
+import com.kineticdata.examples.javalin.deadlines.Deadline;
+import com.kineticdata.examples.javalin.deadlines.DeadlineExceededException;
+import com.kineticdata.examples.javalin.models.Widget;
+import io.javalin.BadRequestResponse;
+import io.javalin.Context;
+import io.javalin.HttpResponseException;
+import io.javalin.json.JavalinJackson;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Executes an ordered list of widget operations in a single request.
+ *
+ * Operations on different keys are executed concurrently, while the operations on a single key are
+ * chained so they are executed in the order they were specified.  Each chain carries the last
+ * known state of its widget, so only the first operation on a key that needs the persisted widget
+ * retrieves it (later retrieves, updates, and deletes of the same key reuse that state).
+ *
+ * Every operation gets its own result (with an HTTP style status), so a failed operation does not
+ * fail the rest of the batch.  This includes the deadline of the batch: once it passes, the 
+ * response is returned immediately with a 504 result for each operation that wasn't complete.
+ */
+public class BatchController {
+
+    public static final int MAX_OPERATIONS = 100;
+
+    public static enum Type {
+        CREATE,
+        RETRIEVE,
+        UPDATE,
+        DELETE
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final WidgetDao widgetDao;
+    private final ScheduledExecutorService deadlineExecutor;
+
+    public BatchController(WidgetDao widgetDao, ScheduledExecutorService deadlineExecutor) {
+        this.widgetDao = widgetDao;
+        this.deadlineExecutor = deadlineExecutor;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    public void batch(Context context) {
+        // Extract the request parameters
+        String tenantKey = context.pathParam("tenantKey");
+        List<Operation> operations = parseOperations(context.body());
+        Deadline deadline = WidgetController.deadline(
+            context, WidgetController.DEFAULT_WRITE_TIMEOUT_MILLIS, deadlineExecutor);
+        WidgetDao requestDao = widgetDao.withDeadline(deadline);
+        // The last known state of each key (which completes with null if the state is unknown)
+        Map<String,CompletableFuture<Optional<Widget>>> states = new HashMap<>();
+        // Start each operation once the previous operation on the same key is complete
+        List<CompletableFuture<Outcome>> outcomes = new ArrayList<>();
+        for (Operation operation : operations) {
+            if (operation.error != null) {
+                outcomes.add(CompletableFuture.completedFuture(
+                    new Outcome(400, null, operation.error, null)));
+                continue;
+            }
+            CompletableFuture<Outcome> outcome = states
+                .getOrDefault(operation.key, CompletableFuture.completedFuture(null))
+                .thenCompose(state -> execute(requestDao, tenantKey, operation, state))
+                // A failed operation is reported (and leaves the state of its key unknown)
+                .exceptionally(throwable -> Outcome.failed(throwable, deadline));
+            states.put(operation.key, outcome.thenApply(result -> result.state));
+            outcomes.add(outcome);
+        }
+        // Once every operation is complete (or as soon as the deadline passes), return the JSON 
+        // string.  The outcomes never fail, so the guard only fails if the deadline passes first, 
+        // in which case the operations that are still running are reported as exceeding it (and
+        // cancelled) while the completed operations keep their results.
+        CompletableFuture<Void> completion = 
+            CompletableFuture.allOf(outcomes.toArray(new CompletableFuture[outcomes.size()]));
+        CompletableFuture<String> future = deadline.guard(completion)
+            .handle((ignored, throwable) -> {
+                List<Map<String,Object>> results = new ArrayList<>();
+                for (CompletableFuture<Outcome> outcome : outcomes) {
+                    results.add(outcome.isDone()
+                        ? outcome.join().toMap()
+                        : Outcome.failed(deadline.exceeded(), deadline).toMap());
+                }
+                return toJson(ImmutableMap.of("results", results));
+            });
+        // Set the result future
+        context.result(future);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Executes the operation given the current state of its widget, which is null if the state is
+     * not known (in which case the widget is retrieved first if the operation needs it).
+     *
+     * @param dao
+     * @param tenantKey
+     * @param operation
+     * @param state
+     * @return
+     */
+    protected CompletableFuture<Outcome> execute(
+        WidgetDao dao,
+        String tenantKey,
+        Operation operation,
+        Optional<Widget> state
+    ) {
+        // Creating a widget doesn't depend on its previous state
+        if (operation.type == Type.CREATE) {
+            return dao.create(new Widget(tenantKey, operation.key, operation.description))
+                .thenApply(widget -> new Outcome(200, widget, null, Optional.of(widget)));
+        }
+        // Retrieve the widget if its state isn't known yet
+        if (state == null) {
+            return dao.retrieve(tenantKey, operation.key)
+                .thenCompose(retrieved -> execute(dao, tenantKey, operation, retrieved));
+        }
+        if (!state.isPresent()) {
+            return CompletableFuture.completedFuture(new Outcome(
+                404, null, "The \""+operation.key+"\" widget was not found.", state));
+        }
+        Widget persistedWidget = state.get();
+        switch (operation.type) {
+            case RETRIEVE:
+                return CompletableFuture.completedFuture(
+                    new Outcome(200, persistedWidget, null, state));
+            case UPDATE:
+                Widget.Builder builder = persistedWidget.builder();
+                if (operation.hasDescription) {
+                    builder.setDescription(operation.description);
+                }
+                return dao.update(persistedWidget, builder.build())
+                    .thenApply(widget -> new Outcome(200, widget, null, Optional.of(widget)));
+            default:
+                return dao.delete(persistedWidget)
+                    .thenApply(widget -> new Outcome(200, widget, null, Optional.empty()));
+        }
+    }
+
+    /**
+     * Parses the operations of the (JSON) body.  A body that isn't a batch fails the request, while
+     * an individual operation that is invalid is only reported in its own result.
+     *
+     * @param body
+     * @return
+     */
+    protected List<Operation> parseOperations(String body) {
+        Object value;
+        try {
+            value = fromJson(body, Map.class).get("operations");
+        } catch (RuntimeException e) {
+            throw new BadRequestResponse("The request body must be a JSON object.");
+        }
+        if (!(value instanceof List)) {
+            throw new BadRequestResponse("The \"operations\" property must be a list.");
+        }
+        List<?> elements = (List<?>)value;
+        if (elements.size() > MAX_OPERATIONS) {
+            throw new BadRequestResponse("A batch can't have more than "+MAX_OPERATIONS
+                +" operations.");
+        }
+        List<Operation> operations = new ArrayList<>();
+        for (Object element : elements) {
+            operations.add(Operation.parse(element));
+        }
+        return operations;
+    }
+
+    public <T> T fromJson(String json, Class<T> objectClass) {
+        return JavalinJackson.INSTANCE.fromJson(json, objectClass);
+    }
+
+    public String toJson(Object object) {
+        return JavalinJackson.INSTANCE.toJson(object);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * A single operation of a batch, such as:
+     *   {"op": "update", "key": "foo", "widget": {"description": "A fooish widget."}}
+     *
+     * Widgets can't be renamed (or moved to another tenant) within a batch, since that would make
+     * the operation depend on the chains of two keys.
+     */
+    protected static class Operation {
+        private Type type;
+        private String key;
+        private String description;
+        private boolean hasDescription;
+        // The reason the operation is invalid (or null if it is valid)
+        private String error;
+
+        public static Operation parse(Object element) {
+            Operation operation = new Operation();
+            if (!(element instanceof Map)) {
+                operation.error = "Each operation must be a JSON object.";
+                return operation;
+            }
+            Map<?,?> fields = (Map<?,?>)element;
+            // Validate the type
+            try {
+                operation.type = Type.valueOf(
+                    String.valueOf(fields.get("op")).toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                operation.error = "The \"op\" property must be create, retrieve, update, or "
+                    +"delete.";
+                return operation;
+            }
+            // Validate the key
+            if (!(fields.get("key") instanceof String) || ((String)fields.get("key")).isEmpty()) {
+                operation.error = "A key is required.";
+                return operation;
+            }
+            operation.key = (String)fields.get("key");
+            // Validate the widget properties
+            Object widget = fields.get("widget");
+            if (widget != null) {
+                if (!(widget instanceof Map)) {
+                    operation.error = "The \"widget\" property must be a JSON object.";
+                    return operation;
+                }
+                for (Map.Entry<?,?> entry : ((Map<?,?>)widget).entrySet()) {
+                    if (!"description".equals(entry.getKey())) {
+                        operation.error = "Only the description of a widget can be set in a batch.";
+                        return operation;
+                    }
+                    if (entry.getValue() != null && !(entry.getValue() instanceof String)) {
+                        operation.error = "The description must be a string.";
+                        return operation;
+                    }
+                    operation.description = (String)entry.getValue();
+                    operation.hasDescription = true;
+                }
+            }
+            return operation;
+        }
+    }
+
+    /**
+     * The result of an operation, along with the state of its widget once the operation is
+     * complete (null if the state is unknown, such as after an unexpected failure).
+     */
+    protected static class Outcome {
+        private final int status;
+        private final Widget widget;
+        private final String error;
+        private final Optional<Widget> state;
+
+        public Outcome(int status, Widget widget, String error, Optional<Widget> state) {
+            this.status = status;
+            this.widget = widget;
+            this.error = error;
+            this.state = state;
+        }
+
+        public static Outcome failed(Throwable throwable, Deadline deadline) {
+            if (throwable instanceof CompletionException && throwable.getCause() != null) {
+                throwable = throwable.getCause();
+            }
+            // Queries cancelled by an expired deadline are reported as exceeding the deadline
+            if (throwable instanceof CancellationException && deadline.isExpired()) {
+                throwable = deadline.exceeded();
+            }
+            int status;
+            if (throwable instanceof HttpResponseException) {
+                status = ((HttpResponseException)throwable).getStatus();
+            } else if (throwable instanceof DeadlineExceededException) {
+                status = 504;
+            } else {
+                status = 500;
+            }
+            return new Outcome(status, null, String.valueOf(throwable.getMessage()), null);
+        }
+
+        public Map<String,Object> toMap() {
+            return (error == null)
+                ? ImmutableMap.of("status", status, "widget", widget)
+                : ImmutableMap.of("status", status, "error", error);
+        }
+    }
+
+}
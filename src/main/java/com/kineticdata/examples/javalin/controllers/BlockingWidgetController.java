@@ -0,0 +1,144 @@
+package com.kineticdata.examples.javalin.controllers;
+
+import com.google.common.collect.ImmutableMap;
+import com.kineticdata.examples.javalin.daos.BlockingWidgetDao;
+import com.kineticdata.examples.javalin.daos.WidgetDao;
+import com.kineticdata.examples.javalin.deadlines.Deadline;
+import com.kineticdata.examples.javalin.encodings.Encoding;
+import com.kineticdata.examples.javalin.models.Widget;
+import com.kineticdata.examples.javalin.search.WidgetSearchIndex;
+import io.javalin.Context;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * A version of the WidgetController whose actions are written as straight-line blocking code
+ * against the BlockingWidgetDao.  Each action runs on the specified executor (which is expected to
+ * start a virtual thread per task) and its result is handed back to Javalin as a future, so the
+ * Jetty request threads are released just as they are by the asynchronous controller.
+ *
+ * A blocked thread can't be cancelled when the request deadline passes, so the response still 
+ * fails as soon as the deadline passes but the action only stops before its next statement.
+ */
+public class BlockingWidgetController extends WidgetController {
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final BlockingWidgetDao blockingWidgetDao;
+    private final ExecutorService executor;
+
+    public BlockingWidgetController(
+        WidgetDao widgetDao,
+        WidgetSearchIndex widgetSearchIndex,
+        ScheduledExecutorService deadlineExecutor,
+        BlockingWidgetDao blockingWidgetDao,
+        ExecutorService executor
+    ) {
+        super(widgetDao, widgetSearchIndex, deadlineExecutor);
+        this.blockingWidgetDao = blockingWidgetDao;
+        this.executor = executor;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    @Override
+    public void list(Context context) {
+        // If a search query was specified, search rather than list
+        if (context.queryParam("q") != null) {
+            search(context);
+            return;
+        }
+        // Extract the request parameters
+        String tenantKey = context.pathParam("tenantKey");
+        Integer limit = context.validatedQueryParam("limit", "10").asInt().getOrThrow();
+        String offsetKey = context.queryParam("offsetKey");
+        Set<String> fields = parseFields(context);
+        Encoding encoding = responseEncoding(context);
+        Deadline deadline = deadline(context, DEFAULT_READ_TIMEOUT_MILLIS);
+        BlockingWidgetDao requestDao = blockingWidgetDao.withDeadline(deadline);
+        // Retrieve the widgets on the executor and return the encoded result
+        context.result(deadline.guard(CompletableFuture.supplyAsync(() -> {
+            return encode(encoding, ImmutableMap.of(
+                "widgets", requestDao.list(tenantKey, limit, offsetKey, toColumns(fields))),
+                fields);
+        }, executor)));
+    }
+
+    @Override
+    public void create(Context context) {
+        // Extract the request parameters
+        String tenantKey = context.pathParam("tenantKey");
+        Encoding encoding = responseEncoding(context);
+        // Prepare the widget from the body
+        Widget.Builder builder = readBuilder(context);
+        builder.setTenantKey(tenantKey);
+        Widget model = builder.build();
+        Deadline deadline = deadline(context, DEFAULT_WRITE_TIMEOUT_MILLIS);
+        BlockingWidgetDao requestDao = blockingWidgetDao.withDeadline(deadline);
+        // Create the widget on the executor and return the encoded result
+        context.result(deadline.guard(CompletableFuture.supplyAsync(() -> {
+            return encode(encoding, ImmutableMap.of("widget", requestDao.create(model)), null);
+        }, executor)));
+    }
+
+    @Override
+    public void retrieve(Context context) {
+        // Extract the request parameters
+        String tenantKey = context.pathParam("tenantKey");
+        String key = context.pathParam("key");
+        Set<String> fields = parseFields(context);
+        Encoding encoding = responseEncoding(context);
+        Deadline deadline = deadline(context, DEFAULT_READ_TIMEOUT_MILLIS);
+        BlockingWidgetDao requestDao = blockingWidgetDao.withDeadline(deadline);
+        // Retrieve the widget on the executor and return the encoded result
+        context.result(deadline.guard(CompletableFuture.supplyAsync(() -> {
+            Widget widget = requestDao.retrieve(tenantKey, key, toColumns(fields))
+                .orElseThrow(() -> new RuntimeException("The \""+key+"\" widget was not found."));
+            return encode(encoding, ImmutableMap.of("widget", widget), fields);
+        }, executor)));
+    }
+
+    @Override
+    public void update(Context context) {
+        // Extract the request parameters
+        String tenantKey = context.pathParam("tenantKey");
+        String key = context.pathParam("key");
+        Map<String,Object> body = readFields(context);
+        Encoding encoding = responseEncoding(context);
+        Deadline deadline = deadline(context, DEFAULT_WRITE_TIMEOUT_MILLIS);
+        BlockingWidgetDao requestDao = blockingWidgetDao.withDeadline(deadline);
+        // Update the widget on the executor and return the encoded result
+        context.result(deadline.guard(CompletableFuture.supplyAsync(() -> {
+            Widget persistedWidget = requestDao.retrieve(tenantKey, key).orElseThrow(() ->
+                new RuntimeException("The \""+key+"\" widget was not found."));
+            Widget widget = requestDao.update(
+                persistedWidget,
+                applyBody(persistedWidget, body));
+            return encode(encoding, ImmutableMap.of("widget", widget), null);
+        }, executor)));
+    }
+
+    @Override
+    public void delete(Context context) {
+        // Extract the request parameters
+        String tenantKey = context.pathParam("tenantKey");
+        String key = context.pathParam("key");
+        Encoding encoding = responseEncoding(context);
+        Deadline deadline = deadline(context, DEFAULT_WRITE_TIMEOUT_MILLIS);
+        BlockingWidgetDao requestDao = blockingWidgetDao.withDeadline(deadline);
+        // Delete the widget on the executor and return the encoded result
+        context.result(deadline.guard(CompletableFuture.supplyAsync(() -> {
+            Widget widget = requestDao.retrieve(tenantKey, key).orElseThrow(() ->
+                new RuntimeException("The \""+key+"\" widget was not found."));
+            return encode(encoding, ImmutableMap.of("widget", requestDao.delete(widget)), null);
+        }, executor)));
+    }
+
+}
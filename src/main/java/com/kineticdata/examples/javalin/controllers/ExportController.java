@@ -0,0 +1,195 @@
+package com.kineticdata.examples.javalin.controllers;
+
+import com.datastax.driver.core.PagingState;
+import com.datastax.driver.core.TokenRange;
+import com.google.common.collect.ImmutableMap;
+import com.kineticdata.examples.javalin.daos.WidgetDao;
+import io.javalin.BadRequestResponse;
+import io.javalin.Context;
+import io.javalin.json.JavalinJackson;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ExportController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExportController.class);
+
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+    public static final String COMPLETE = "complete";
+    /** The largest number of token ranges an export is split into. */
+    public static final int MAX_SPLITS = 1024;
+    /** The largest number of token ranges an export scans at once. */
+    public static final int MAX_CONCURRENCY = 32;
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final WidgetDao widgetDao;
+    private final Executor exportExecutor;
+
+    public ExportController(WidgetDao widgetDao, Executor exportExecutor) {
+        this.widgetDao = widgetDao;
+        this.exportExecutor = exportExecutor;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Streams every widget as NDJSON, scanning the token ranges of the ring in parallel.
+     *
+     * Each line is either a widget (<code>{"widget":{...}}</code>) or a checkpoint for one of the
+     * token ranges (<code>{"checkpoint":"3:..."}</code>), which is written once all of the widgets
+     * preceding it for that range have been written.  An interrupted export can be resumed by
+     * passing the last checkpoint seen for each range as a <code>resume</code> query parameter
+     * (along with the same <code>splits</code> value), as long as the ring topology is unchanged.
+     *
+     * The rows are written by threads of the export executor, which block while the client is 
+     * slow to read (and so stop the next page from being fetched) without stalling the threads
+     * that complete the driver futures.  If a range fails once the response has been started, an
+     * error line (<code>{"error":"..."}</code>) is written as the final line of the export; a
+     * client that doesn't receive the "complete" checkpoint for every range should resume.
+     *
+     * The <code>splits</code> and <code>concurrency</code> values are capped at MAX_SPLITS and
+     * MAX_CONCURRENCY (so a resumed export is split the same way as long as it passes the same
+     * <code>splits</code> value).
+     *
+     * @param context
+     */
+    public void export(Context context) {
+        // Extract the request parameters
+        Integer splits = context.validatedQueryParam("splits", "1").asInt().getOrThrow();
+        Integer concurrency = context.validatedQueryParam("concurrency", "8").asInt().getOrThrow();
+        if (splits < 1 || concurrency < 1) {
+            throw new BadRequestResponse(
+                "The \"splits\" and \"concurrency\" parameters must be positive integers.");
+        }
+        splits = Math.min(splits, MAX_SPLITS);
+        concurrency = Math.min(concurrency, MAX_CONCURRENCY);
+        Map<Integer,String> checkpoints = parseCheckpoints(context.queryParams("resume"), splits);
+        // Determine the token ranges to scan
+        List<TokenRange> tokenRanges = widgetDao.tokenRanges(splits);
+        // Prepare the streaming response
+        StreamingResponse response = new StreamingResponse(
+            context, CONTENT_TYPE, StreamingResponse.acceptsGzip(context));
+        // Asynchronously scan the token ranges, bounding the number of ranges scanned at once
+        CompletableFuture<Void> future = WidgetDao.inParallel(
+            tokenRanges.size(),
+            concurrency,
+            index -> exportRange(response, index, tokenRanges.get(index), checkpoints.get(index)))
+            // Once all of the ranges have been scanned (or one has failed), complete the response
+            .handle((result, throwable) -> {
+                try {
+                    if (throwable != null) {
+                        writeError(response, throwable);
+                    }
+                    response.close();
+                } catch (UncheckedIOException e) {
+                    // The client has gone away, so there is no one to report the outcome to
+                }
+                return null;
+            });
+        // Set the result future
+        context.result(future);
+    }
+    
+    protected CompletableFuture<Void> exportRange(
+        StreamingResponse response,
+        int index,
+        TokenRange tokenRange,
+        String checkpoint
+    ) {
+        // If the range was completed by a previous export, skip it
+        if (COMPLETE.equals(checkpoint)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        // Determine where to start scanning the range
+        PagingState pagingState = (checkpoint == null) ? null : PagingState.fromString(checkpoint);
+        // Asynchronously scan the range
+        return widgetDao.scan(
+            tokenRange,
+            pagingState,
+            response,
+            (memo, row) -> {
+                // Write the widget
+                memo.writeLine(toJson(ImmutableMap.of("widget", widgetDao.toWidget(row))));
+                // Continue streaming
+                return true;
+            },
+            (memo, nextPagingState) -> {
+                // Write a checkpoint once each page has been written (the range is complete once
+                // the last page has been written)
+                if (nextPagingState != null) {
+                    writeCheckpoint(memo, index, nextPagingState.toString());
+                }
+            },
+            exportExecutor)
+            // Once the range has been scanned, write the final checkpoint
+            .thenAccept(memo -> writeCheckpoint(memo, index, COMPLETE));
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    protected Map<Integer,String> parseCheckpoints(List<String> values, int splits) {
+        Map<Integer,String> result = new HashMap<>();
+        for (String value : values) {
+            // Parse the range index and the state (rejecting anything that couldn't have been
+            // written by an export with the same number of splits)
+            int separatorIndex = value.indexOf(':');
+            if (separatorIndex < 1) {
+                throw new BadRequestResponse("The \""+value+"\" checkpoint is not valid.");
+            }
+            int index;
+            try {
+                index = Integer.parseInt(value.substring(0, separatorIndex));
+            } catch (NumberFormatException e) {
+                throw new BadRequestResponse("The \""+value+"\" checkpoint is not valid.");
+            }
+            if (index < 0 || index >= splits) {
+                throw new BadRequestResponse("The \""+value+"\" checkpoint is not valid.");
+            }
+            String state = value.substring(separatorIndex+1);
+            if (!COMPLETE.equals(state)) {
+                try {
+                    PagingState.fromString(state);
+                } catch (RuntimeException e) {
+                    throw new BadRequestResponse("The \""+value+"\" checkpoint is not valid.");
+                }
+            }
+            result.put(index, state);
+        }
+        return result;
+    }
+
+    protected void writeCheckpoint(StreamingResponse response, int index, String state) {
+        response.writeLine(toJson(ImmutableMap.of("checkpoint", index+":"+state)));
+        response.flush();
+    }
+
+    protected void writeError(StreamingResponse response, Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        LOGGER.error("There was a problem exporting the widgets.", throwable);
+        // The response has usually been started (so the status can no longer be changed), so the
+        // error is reported as the last line of the export
+        String message = String.valueOf(throwable.getMessage());
+        response.writeLine(toJson(ImmutableMap.of("error", message)));
+    }
+
+    public String toJson(Object object) {
+        return JavalinJackson.INSTANCE.toJson(object);
+    }
+
+}
@@ -0,0 +1,253 @@
+package com.kineticdata.examples.javalin.controllers;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.collect.ImmutableMap;
+import com.kineticdata.examples.javalin.daos.WidgetDao;
+import com.kineticdata.examples.javalin.models.Widget;
+import io.javalin.BadRequestResponse;
+import io.javalin.Context;
+import io.javalin.json.JavalinJackson;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ImportController {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 128;
+    public static final int MAX_REPORTED_ERRORS = 100;
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final WidgetDao widgetDao;
+    private final ObjectReader builderReader;
+
+    public ImportController(WidgetDao widgetDao) {
+        this.widgetDao = widgetDao;
+        this.builderReader = JavalinJackson.getObjectMapper().readerFor(Widget.Builder.class);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Creates the widgets in a JSON array request body.  The array is parsed one element at a
+     * time, so an element that can't be parsed ends the import (but the widgets preceding it are
+     * still created).
+     *
+     * @param context
+     * @throws IOException
+     */
+    public void bulk(Context context) throws IOException {
+        // Extract the request parameters
+        String tenantKey = context.pathParam("tenantKey");
+        Integer maxInFlight = context
+            .validatedQueryParam("maxInFlight", String.valueOf(DEFAULT_MAX_IN_FLIGHT))
+            .asInt().getOrThrow();
+        // Prepare the import
+        WidgetImport widgetImport = new WidgetImport(tenantKey, maxInFlight, "index");
+        // Parse the body incrementally, creating each widget as it is read
+        try (JsonParser parser = JavalinJackson.getObjectMapper().getFactory()
+            .createParser(context.req.getInputStream())
+        ) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new BadRequestResponse("The request body must be a JSON array.");
+            }
+            long index = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    widgetImport.reject(index, "Expected a widget object but found "+token+".");
+                    break;
+                }
+                Widget.Builder builder;
+                try {
+                    builder = builderReader.readValue(parser);
+                } catch (IOException e) {
+                    widgetImport.reject(index, e);
+                    break;
+                }
+                widgetImport.submit(index++, builder);
+            }
+        } catch (IOException e) {
+            widgetImport.reject(widgetImport.count(), e);
+        }
+        // Once all of the writes are complete, return the JSON string
+        context.result(widgetImport.complete()
+            .thenApply(summary -> toJson(ImmutableMap.of("import", summary))));
+    }
+
+    /**
+     * Creates the widgets in an NDJSON request body (one widget per line).  The body is read one
+     * line at a time and lines that can't be parsed are reported and skipped.
+     *
+     * @param context
+     * @throws IOException
+     */
+    public void ndjson(Context context) throws IOException {
+        // Extract the request parameters
+        String tenantKey = context.pathParam("tenantKey");
+        Integer maxInFlight = context
+            .validatedQueryParam("maxInFlight", String.valueOf(DEFAULT_MAX_IN_FLIGHT))
+            .asInt().getOrThrow();
+        // Prepare the import
+        WidgetImport widgetImport = new WidgetImport(tenantKey, maxInFlight, "line");
+        // Read the body incrementally, creating each widget as it is read
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(context.req.getInputStream(), StandardCharsets.UTF_8))
+        ) {
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                Widget.Builder builder;
+                try {
+                    builder = builderReader.readValue(line);
+                } catch (IOException e) {
+                    widgetImport.reject(lineNumber, e);
+                    continue;
+                }
+                widgetImport.submit(lineNumber, builder);
+            }
+        }
+        // Once all of the writes are complete, return the JSON string
+        context.result(widgetImport.complete()
+            .thenApply(summary -> toJson(ImmutableMap.of("import", summary))));
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    public String toJson(Object object) {
+        return JavalinJackson.INSTANCE.toJson(object);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Tracks the writes of a single import.  At most maxInFlight writes are outstanding at any
+     * given time; submitting another blocks the request thread (and therefore the reading of the
+     * request body) until one of them completes.
+     *
+     * Every element (or line) that is read is counted as received, whether it is submitted or
+     * rejected because it can't be parsed, so the number received is always the sum of the number
+     * created and the number failed.
+     */
+    protected class WidgetImport {
+        private final String tenantKey;
+        private final String positionName;
+        private final Semaphore inFlight;
+        // The reader holds one pending count until it calls complete
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final List<Map<String,Object>> errors = new ArrayList<>();
+        private final CompletableFuture<Map<String,Object>> future = new CompletableFuture<>();
+
+        public WidgetImport(String tenantKey, int maxInFlight, String positionName) {
+            this.tenantKey = tenantKey;
+            this.positionName = positionName;
+            this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+        }
+
+        public long count() {
+            return count.get();
+        }
+
+        public void submit(long position, Widget.Builder builder) {
+            count.incrementAndGet();
+            // Validate the widget
+            if (builder.getKey() == null || builder.getKey().isEmpty()) {
+                failed(position, "A key is required.");
+                return;
+            }
+            Widget widget = builder.setTenantKey(tenantKey).build();
+            // Wait until there is room in the window
+            inFlight.acquireUninterruptibly();
+            pending.incrementAndGet();
+            // Asynchronously create the widget
+            CompletableFuture<Widget> createFuture;
+            try {
+                createFuture = widgetDao.create(widget);
+            } catch (RuntimeException e) {
+                createFuture = new CompletableFuture<>();
+                createFuture.completeExceptionally(e);
+            }
+            createFuture.whenComplete((result, throwable) -> {
+                inFlight.release();
+                if (throwable == null) {
+                    created.incrementAndGet();
+                } else {
+                    failed(position, throwable);
+                }
+                release();
+            });
+        }
+
+        public void reject(long position, Throwable throwable) {
+            count.incrementAndGet();
+            failed(position, throwable);
+        }
+
+        public void reject(long position, String message) {
+            count.incrementAndGet();
+            failed(position, message);
+        }
+
+        public void failed(long position, Throwable throwable) {
+            if (throwable instanceof CompletionException && throwable.getCause() != null) {
+                throwable = throwable.getCause();
+            }
+            failed(position, throwable.getMessage());
+        }
+
+        public void failed(long position, String message) {
+            failed.incrementAndGet();
+            synchronized (errors) {
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add(ImmutableMap.<String,Object>of(
+                        positionName, position,
+                        "error", String.valueOf(message)));
+                }
+            }
+        }
+
+        public CompletableFuture<Map<String,Object>> complete() {
+            release();
+            return future;
+        }
+
+        private void release() {
+            if (pending.decrementAndGet() == 0) {
+                synchronized (errors) {
+                    future.complete(ImmutableMap.of(
+                        "received", count.get(),
+                        "created", created.get(),
+                        "failed", failed.get(),
+                        "errors", new ArrayList<>(errors)));
+                }
+            }
+        }
+    }
+
+}
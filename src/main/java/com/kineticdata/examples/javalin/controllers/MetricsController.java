@@ -0,0 +1,91 @@
+package com.kineticdata.examples.javalin.controllers;
+
+import com.google.common.collect.ImmutableMap;
+import com.kineticdata.examples.javalin.accesslog.AccessLog;
+import com.kineticdata.examples.javalin.counts.WidgetCountReconciler;
+import com.kineticdata.examples.javalin.daos.WidgetDao;
+import com.kineticdata.examples.javalin.search.WidgetSearchIndex;
+import io.javalin.Context;
+import io.javalin.json.JavalinJackson;
+import java.util.concurrent.CompletableFuture;
+
+public class MetricsController {
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final WidgetDao widgetDao;
+    private final AccessLog accessLog;
+    private final WidgetSearchIndex widgetSearchIndex;
+    private final WidgetCountReconciler widgetCountReconciler;
+
+    public MetricsController(
+        WidgetDao widgetDao,
+        AccessLog accessLog,
+        WidgetSearchIndex widgetSearchIndex,
+        WidgetCountReconciler widgetCountReconciler
+    ) {
+        this.widgetDao = widgetDao;
+        this.accessLog = accessLog;
+        this.widgetSearchIndex = widgetSearchIndex;
+        this.widgetCountReconciler = widgetCountReconciler;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Returns the paging metrics of each widget query, including how much of the time spent
+     * fetching additional pages was hidden by reading ahead.
+     *
+     * @param context
+     */
+    public void paging(Context context) {
+        context.result(CompletableFuture.completedFuture(
+            toJson(ImmutableMap.of("paging", widgetDao.getPagingMetrics()))));
+    }
+
+    /**
+     * Returns the access log counters, including the number of requests that were sampled out or
+     * dropped because the access log writer had fallen behind.
+     *
+     * @param context
+     */
+    public void accessLog(Context context) {
+        context.result(CompletableFuture.completedFuture(
+            toJson(ImmutableMap.of("accessLog", accessLog.getMetrics()))));
+    }
+
+    /**
+     * Returns the state of the widget search index, including the number of times building it has
+     * failed (and the most recent error) while search is unavailable.
+     *
+     * @param context
+     */
+    public void searchIndex(Context context) {
+        context.result(CompletableFuture.completedFuture(
+            toJson(ImmutableMap.of("searchIndex", widgetSearchIndex.getMetrics()))));
+    }
+
+    /**
+     * Returns the status of the most recent widget count reconciliation started by this server,
+     * including its summary (or error) once it has completed.
+     *
+     * @param context
+     */
+    public void widgetCounts(Context context) {
+        context.result(CompletableFuture.completedFuture(
+            toJson(ImmutableMap.of("reconcile", widgetCountReconciler.getStatus()))));
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    public String toJson(Object object) {
+        return JavalinJackson.INSTANCE.toJson(object);
+    }
+
+}
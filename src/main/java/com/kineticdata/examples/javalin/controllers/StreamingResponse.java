@@ -0,0 +1,102 @@
+package com.kineticdata.examples.javalin.controllers;
+
+import io.javalin.Context;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a long lived response directly to the servlet output stream, one line at a time.
+ *
+ * Javalin only writes the result of a completed future, so responses that are produced
+ * incrementally (such as NDJSON exports) write to the underlying response themselves and complete
+ * the result future once they are done.  Because the writes are blocking, a slow client will stall
+ * the writing thread (and in turn whatever is producing the lines), which is what provides
+ * back-pressure.
+ */
+class StreamingResponse {
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final Context context;
+    private final String contentType;
+    private final boolean gzip;
+    private OutputStream outputStream;
+    private boolean asyncTimeoutDisabled = false;
+
+    StreamingResponse(Context context, String contentType, boolean gzip) {
+        this.context = context;
+        this.contentType = contentType;
+        this.gzip = gzip;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    public synchronized void write(String text) {
+        try {
+            open().write(text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void writeLine(String line) {
+        write(line+"\n");
+    }
+
+    public synchronized void flush() {
+        try {
+            open().flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            OutputStream stream = open();
+            if (stream instanceof GZIPOutputStream) {
+                ((GZIPOutputStream)stream).finish();
+            }
+            stream.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    public static boolean acceptsGzip(Context context) {
+        String acceptEncoding = context.header("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    private OutputStream open() throws IOException {
+        // Streamed responses can outlive the default servlet async timeout, so disable it (the
+        // async context is started by Javalin once the handler has returned)
+        if (!asyncTimeoutDisabled && context.req.isAsyncStarted()) {
+            context.req.getAsyncContext().setTimeout(0);
+            asyncTimeoutDisabled = true;
+        }
+        if (outputStream == null) {
+            // Set the headers before the response is committed
+            context.res.setContentType(contentType);
+            if (gzip) {
+                context.res.setHeader("Content-Encoding", "gzip");
+                outputStream = new GZIPOutputStream(context.res.getOutputStream(), true);
+            } else {
+                outputStream = context.res.getOutputStream();
+            }
+        }
+        return outputStream;
+    }
+
+}
@@ -1,23 +1,60 @@
 package com.kineticdata.examples.javalin.controllers;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.kineticdata.examples.javalin.daos.WidgetDao;
+import com.kineticdata.examples.javalin.deadlines.Deadline;
+import com.kineticdata.examples.javalin.encodings.Encoding;
 import com.kineticdata.examples.javalin.models.Widget;
+import com.kineticdata.examples.javalin.search.WidgetSearchIndex;
+import io.javalin.BadRequestResponse;
 import io.javalin.Context;
+import io.javalin.ServiceUnavailableResponse;
 import io.javalin.json.JavalinJackson;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class WidgetController {
 
+    /** The request header used by clients to specify their own timeout (in milliseconds). */
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+    public static final long DEFAULT_READ_TIMEOUT_MILLIS = 5000;
+    public static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 10000;
+    /** Timeouts are capped below the 30 second timeout of Jetty's asynchronous requests. */
+    public static final long MAX_TIMEOUT_MILLIS = 25000;
+
     /*----------------------------------------------------------------------------------------------
      * CONSTRUCTOR
      *--------------------------------------------------------------------------------------------*/
     
     private final WidgetDao widgetDao;
+    private final WidgetSearchIndex widgetSearchIndex;
+    private final ScheduledExecutorService deadlineExecutor;
+    private final ObjectWriter partialWriter;
     
-    public WidgetController(WidgetDao widgetDao) {
+    public WidgetController(
+        WidgetDao widgetDao, 
+        WidgetSearchIndex widgetSearchIndex,
+        ScheduledExecutorService deadlineExecutor
+    ) {
         this.widgetDao = widgetDao;
+        this.widgetSearchIndex = widgetSearchIndex;
+        this.deadlineExecutor = deadlineExecutor;
+        // Partial widgets are serialized without the properties that were not selected
+        this.partialWriter = JavalinJackson.getObjectMapper().copy()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .writer();
     }
     
     /*----------------------------------------------------------------------------------------------
@@ -25,102 +62,351 @@ public class WidgetController {
      *--------------------------------------------------------------------------------------------*/
     
     public void list(Context context) {
+        // If a search query was specified, search rather than list
+        if (context.queryParam("q") != null) {
+            search(context);
+            return;
+        }
         // Extract the request parameters
         String tenantKey = context.pathParam("tenantKey");
         Integer limit = context.validatedQueryParam("limit", "10").asInt().getOrThrow();
         String offsetKey = context.queryParam("offsetKey");
-        // Asynchronously retrieve the widgets
-        CompletableFuture<String> future = widgetDao.list(tenantKey, limit, offsetKey)
-            // Once the widget query is complete, return the JSON string
-            .thenApply(widgets -> toJson(ImmutableMap.of("widgets", widgets)));
+        Set<String> fields = parseFields(context);
+        Encoding encoding = responseEncoding(context);
+        Deadline deadline = deadline(context, DEFAULT_READ_TIMEOUT_MILLIS);
+        // Asynchronously retrieve the widgets (only selecting the requested fields)
+        CompletableFuture<Object> future = widgetDao.withDeadline(deadline)
+            .list(tenantKey, limit, offsetKey, toColumns(fields))
+            // Once the widget query is complete, return the encoded result
+            .thenApply(widgets -> encode(encoding, ImmutableMap.of("widgets", widgets), fields));
+        // Set the result future (which fails as soon as the deadline passes)
+        context.result(deadline.guard(future));
+    }
+    
+    public void search(Context context) {
+        // Extract the request parameters
+        String tenantKey = context.pathParam("tenantKey");
+        String query = context.queryParam("q");
+        Integer limit = context.validatedQueryParam("limit", "10").asInt().getOrThrow();
+        Set<String> fields = parseFields(context);
+        Encoding encoding = responseEncoding(context);
+        WidgetSearchIndex.Match match;
+        try {
+            match = WidgetSearchIndex.Match.valueOf(
+                context.queryParam("match", "substring").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestResponse("The \"match\" parameter must be substring or prefix.");
+        }
+        // Searches are only answered once the index has been fully built
+        if (!widgetSearchIndex.isReady()) {
+            throw new ServiceUnavailableResponse("The search index is still being built.");
+        }
+        // Search the in-process index (which does not require any Cassandra queries)
+        CompletableFuture<Object> future = CompletableFuture
+            .completedFuture(widgetSearchIndex.search(tenantKey, query, match, limit))
+            // Return the encoded result (only including the requested fields)
+            .thenApply(widgets -> select(widgets, fields))
+            .thenApply(widgets -> encode(encoding, ImmutableMap.of("widgets", widgets), fields));
         // Set the result future
         context.result(future);
     }
     
+    /**
+     * Returns the number of widgets of the tenant, which is read from a counter table (rather than
+     * by listing every widget) and may briefly lag behind changes made through other servers.
+     * 
+     * @param context 
+     */
+    public void count(Context context) {
+        // Extract the request parameters
+        String tenantKey = context.pathParam("tenantKey");
+        Encoding encoding = responseEncoding(context);
+        Deadline deadline = deadline(context, DEFAULT_READ_TIMEOUT_MILLIS);
+        // Asynchronously retrieve the (possibly cached) count
+        CompletableFuture<Object> future = widgetDao.withDeadline(deadline).count(tenantKey)
+            // Once the count query is complete, return the encoded result
+            .thenApply(count -> encode(encoding, ImmutableMap.of("count", count), null));
+        // Set the result future (which fails as soon as the deadline passes)
+        context.result(deadline.guard(future));
+    }
+    
     public void create(Context context) {
         // Extract the request parameters
         String tenantKey = context.pathParam("tenantKey");
+        Encoding encoding = responseEncoding(context);
         // Prepare the widget from the body
-        Widget.Builder builder = context.validatedBodyAsClass(Widget.Builder.class).getOrThrow();
+        Widget.Builder builder = readBuilder(context);
         builder.setTenantKey(tenantKey);
         Widget model = builder.build();
+        Deadline deadline = deadline(context, DEFAULT_WRITE_TIMEOUT_MILLIS);
         // Asynchronously create the widget
-        CompletableFuture<String> future = widgetDao.create(model)
-            // Once the widget query is complete, return the JSON string
-            .thenApply(widget -> toJson(ImmutableMap.of("widget", widget)));
-        // Set the result future
-        context.result(future);
+        CompletableFuture<Object> future = widgetDao.withDeadline(deadline).create(model)
+            // Once the widget query is complete, return the encoded result
+            .thenApply(widget -> encode(encoding, ImmutableMap.of("widget", widget), null));
+        // Set the result future (which fails as soon as the deadline passes)
+        context.result(deadline.guard(future));
     }
     
     public void retrieve(Context context) {
         // Extract the request parameters
         String tenantKey = context.pathParam("tenantKey");
         String key = context.pathParam("key");
-        // Asynchronously retrieve the widget
-        CompletableFuture<String> future = widgetDao.retrieve(tenantKey, key)
+        Set<String> fields = parseFields(context);
+        Encoding encoding = responseEncoding(context);
+        Deadline deadline = deadline(context, DEFAULT_READ_TIMEOUT_MILLIS);
+        // Asynchronously retrieve the widget (only selecting the requested fields)
+        CompletableFuture<Object> future = widgetDao.withDeadline(deadline)
+            .retrieve(tenantKey, key, toColumns(fields))
             // Once the widget query is complete, raise an exception if it wasn't found
             .thenApply(optional -> optional.orElseThrow(() -> 
                 new RuntimeException("The \""+key+"\" widget was not found.")))
-            // Once the widget query is complete (and was found), return the JSON string
-            .thenApply(widget -> toJson(ImmutableMap.of("widget", widget)));
-        // Set the result future
-        context.result(future);
+            // Once the widget query is complete (and was found), return the encoded result
+            .thenApply(widget -> encode(encoding, ImmutableMap.of("widget", widget), fields));
+        // Set the result future (which fails as soon as the deadline passes)
+        context.result(deadline.guard(future));
     }
     
     public void update(Context context) {
         // Extract the request parameters
         String tenantKey = context.pathParam("tenantKey");
         String key = context.pathParam("key");
-        // Prepare the widget from the body
+        Encoding encoding = responseEncoding(context);
+        Deadline deadline = deadline(context, DEFAULT_WRITE_TIMEOUT_MILLIS);
+        WidgetDao requestDao = widgetDao.withDeadline(deadline);
+        // Prepare the widget fields from the body
+        Map<String,Object> body = readFields(context);
         // Asynchronously retrieve the widget
-        CompletableFuture<String> future = widgetDao.retrieve(tenantKey, key)
+        CompletableFuture<Object> future = requestDao.retrieve(tenantKey, key)
             // Once the widget query is complete, raise an exception if it wasn't found
             .thenApply(optional -> optional.orElseThrow(() -> 
                 new RuntimeException("The \""+context.pathParam("id")+"\" widget was not found.")))
             // Once the widget query is complete (and was found), update the widget
-            .thenCompose(persistedWidget -> {
-                // Prepare the builder
-                Widget.Builder builder = persistedWidget.builder();
-                // Prepare the widget from the body
-                Map<String,Object> body = fromJson(context.body(), Map.class);
-                if (body.containsKey("tenantKey")) {
-                    builder.setTenantKey((String)body.get("tenantKey"));
-                }
-                if (body.containsKey("key")) {
-                    builder.setKey((String)body.get("key"));
-                }
-                if (body.containsKey("description")) {
-                    builder.setDescription((String)body.get("description"));
-                }
-                return widgetDao.update(persistedWidget, builder.build());
-            })
-            // Once the widget query is complete, return the JSON string
-            .thenApply(widget -> toJson(ImmutableMap.of("widget", widget)));
-        // Set the result future
-        context.result(future);
+            .thenCompose(persistedWidget -> 
+                requestDao.update(persistedWidget, applyBody(persistedWidget, body)))
+            // Once the widget query is complete, return the encoded result
+            .thenApply(widget -> encode(encoding, ImmutableMap.of("widget", widget), null));
+        // Set the result future (which fails as soon as the deadline passes)
+        context.result(deadline.guard(future));
     }
     
     public void delete(Context context) {
         // Extract the request parameters
         String tenantKey = context.pathParam("tenantKey");
         String key = context.pathParam("key");
+        Encoding encoding = responseEncoding(context);
+        Deadline deadline = deadline(context, DEFAULT_WRITE_TIMEOUT_MILLIS);
+        WidgetDao requestDao = widgetDao.withDeadline(deadline);
         // Asynchronously retrieve the widget
-        CompletableFuture<String> future = widgetDao.retrieve(tenantKey, key)
+        CompletableFuture<Object> future = requestDao.retrieve(tenantKey, key)
             // Once the widget query is complete, raise an exception if it wasn't found
             .thenApply(optional -> optional.orElseThrow(() -> 
                 new RuntimeException("The \""+key+"\" widget was not found.")))
             // Once the widget query is complete (and was found), delete the widget
-            .thenCompose(widget -> widgetDao.delete(widget))
-            // Once the delete query is complete, return the JSON string
-            .thenApply(widget -> toJson(ImmutableMap.of("widget", widget)));
-        // Set the result future
-        context.result(future);
+            .thenCompose(widget -> requestDao.delete(widget))
+            // Once the delete query is complete, return the encoded result
+            .thenApply(widget -> encode(encoding, ImmutableMap.of("widget", widget), null));
+        // Set the result future (which fails as soon as the deadline passes)
+        context.result(deadline.guard(future));
     }
     
     /*----------------------------------------------------------------------------------------------
      * HELPER METHODS
      *--------------------------------------------------------------------------------------------*/
     
+    /**
+     * Returns a copy of the persisted widget with the fields present in the (parsed) body applied.
+     * 
+     * @param persistedWidget
+     * @param fields
+     * @return 
+     */
+    protected Widget applyBody(Widget persistedWidget, Map<String,Object> fields) {
+        // Prepare the builder
+        Widget.Builder builder = persistedWidget.builder();
+        // Prepare the widget from the body
+        if (fields.containsKey("tenantKey")) {
+            builder.setTenantKey((String)fields.get("tenantKey"));
+        }
+        if (fields.containsKey("key")) {
+            builder.setKey((String)fields.get("key"));
+        }
+        if (fields.containsKey("description")) {
+            builder.setDescription((String)fields.get("description"));
+        }
+        return builder.build();
+    }
+    
+    /**
+     * Returns the encoding requested by the Accept header (and sets the response content type).
+     * 
+     * @param context
+     * @return 
+     */
+    protected Encoding responseEncoding(Context context) {
+        Encoding encoding = Encoding.forAccept(context.header("Accept"));
+        context.contentType(encoding.getContentType());
+        context.header("Vary", "Accept");
+        return encoding;
+    }
+    
+    /**
+     * Returns a widget builder parsed from the body (using the encoding of its Content-Type).
+     * 
+     * @param context
+     * @return 
+     */
+    protected Widget.Builder readBuilder(Context context) {
+        Encoding encoding = Encoding.forContentType(context.contentType());
+        if (encoding == Encoding.JSON) {
+            return context.validatedBodyAsClass(Widget.Builder.class).getOrThrow();
+        }
+        try {
+            return encoding.readBuilder(context.bodyAsBytes());
+        } catch (IOException e) {
+            throw new BadRequestResponse("The body is not a valid "+encoding.getContentType()
+                +" widget.");
+        }
+    }
+    
+    /**
+     * Returns the widget fields parsed from the body (using the encoding of its Content-Type).
+     * 
+     * @param context
+     * @return 
+     */
+    protected Map<String,Object> readFields(Context context) {
+        Encoding encoding = Encoding.forContentType(context.contentType());
+        if (encoding == Encoding.JSON) {
+            return fromJson(context.body(), Map.class);
+        }
+        try {
+            return encoding.readMap(context.bodyAsBytes());
+        } catch (IOException e) {
+            throw new BadRequestResponse("The body is not a valid "+encoding.getContentType()
+                +" object.");
+        }
+    }
+    
+    /**
+     * Returns the result of an action in the specified encoding: a JSON string, or a stream of the
+     * bytes of one of the binary encodings.
+     * 
+     * @param encoding
+     * @param object
+     * @param fields
+     * @return 
+     */
+    protected Object encode(Encoding encoding, Object object, Set<String> fields) {
+        if (encoding == Encoding.JSON) {
+            return toJson(object, fields);
+        }
+        try {
+            return new ByteArrayInputStream((fields == null)
+                ? encoding.write(object)
+                : encoding.writePartial(object));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Returns a deadline for the request, using the timeout specified by the client (if any) or 
+     * the default timeout of the action.
+     * 
+     * @param context
+     * @param defaultTimeoutMillis
+     * @return 
+     */
+    protected Deadline deadline(Context context, long defaultTimeoutMillis) {
+        return deadline(context, defaultTimeoutMillis, deadlineExecutor);
+    }
+    
+    /**
+     * Returns a deadline for the request (scheduled on the specified executor), for controllers 
+     * that honor the same timeout header as the widget actions.
+     * 
+     * @param context
+     * @param defaultTimeoutMillis
+     * @param deadlineExecutor
+     * @return 
+     */
+    public static Deadline deadline(
+        Context context, 
+        long defaultTimeoutMillis, 
+        ScheduledExecutorService deadlineExecutor
+    ) {
+        long timeoutMillis = defaultTimeoutMillis;
+        String value = context.header(TIMEOUT_HEADER);
+        if (value != null) {
+            try {
+                timeoutMillis = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                timeoutMillis = -1;
+            }
+            if (timeoutMillis <= 0) {
+                throw new BadRequestResponse("The \""+TIMEOUT_HEADER+"\" header must be a positive "
+                    +"number of milliseconds.");
+            }
+        }
+        return new Deadline(Math.min(timeoutMillis, MAX_TIMEOUT_MILLIS), deadlineExecutor);
+    }
+    
+    /**
+     * Returns the widget properties specified by the (comma separated) fields query parameter, or
+     * null if the parameter was not specified (indicating that every property is returned).
+     * 
+     * @param context
+     * @return 
+     */
+    protected Set<String> parseFields(Context context) {
+        String value = context.queryParam("fields");
+        if (value == null) {
+            return null;
+        }
+        Set<String> fields = new LinkedHashSet<>();
+        for (String field : value.split(",")) {
+            if (!WidgetDao.Fields.BY_PROPERTY.containsKey(field.trim())) {
+                throw new BadRequestResponse("The \""+field.trim()+"\" field is not valid (the "
+                    +"fields must be "+String.join(", ", WidgetDao.Fields.BY_PROPERTY.keySet())+").");
+            }
+            fields.add(field.trim());
+        }
+        return fields;
+    }
+    
+    protected List<String> toColumns(Set<String> fields) {
+        if (fields == null) {
+            return null;
+        }
+        List<String> columns = new ArrayList<>();
+        for (String field : fields) {
+            columns.add(WidgetDao.Fields.BY_PROPERTY.get(field));
+        }
+        return columns;
+    }
+    
+    /**
+     * Returns partial copies of the widgets that only include the specified properties (for 
+     * widgets that were not read from Cassandra, such as search results).
+     * 
+     * @param widgets
+     * @param fields
+     * @return 
+     */
+    protected List<Widget> select(List<Widget> widgets, Set<String> fields) {
+        if (fields == null) {
+            return widgets;
+        }
+        ImmutableList.Builder<Widget> result = ImmutableList.builder();
+        for (Widget widget : widgets) {
+            result.add(new Widget(
+                fields.contains("tenantKey") ? widget.getTenantKey() : null,
+                fields.contains("key") ? widget.getKey() : null,
+                fields.contains("description") ? widget.getDescription() : null));
+        }
+        return result.build();
+    }
+    
     public <T> T fromJson(String json, Class<T> objectClass) {
         return JavalinJackson.INSTANCE.fromJson(json, objectClass);
     }
@@ -129,4 +415,23 @@ public class WidgetController {
         return JavalinJackson.INSTANCE.toJson(object);
     }
     
+    /**
+     * Serializes the object, omitting the null properties of partial widgets if only some of the 
+     * fields were requested.
+     * 
+     * @param object
+     * @param fields
+     * @return 
+     */
+    public String toJson(Object object, Set<String> fields) {
+        if (fields == null) {
+            return toJson(object);
+        }
+        try {
+            return partialWriter.writeValueAsString(object);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
 }
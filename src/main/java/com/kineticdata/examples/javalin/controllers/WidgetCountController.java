@@ -0,0 +1,65 @@
+package com.kineticdata.examples.javalin.controllers;
+
+import com.google.common.collect.ImmutableMap;
+import com.kineticdata.examples.javalin.counts.WidgetCountReconciler;
+import io.javalin.BadRequestResponse;
+import io.javalin.ConflictResponse;
+import io.javalin.Context;
+import io.javalin.json.JavalinJackson;
+import java.util.concurrent.CompletableFuture;
+
+public class WidgetCountController {
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final WidgetCountReconciler widgetCountReconciler;
+
+    public WidgetCountController(WidgetCountReconciler widgetCountReconciler) {
+        this.widgetCountReconciler = widgetCountReconciler;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Starts reconciling the widget counts in the background (rather than waiting for the next
+     * scheduled run), responding with a 202 and the status of the run.  A run takes at least the
+     * settle delay, so its outcome is reported by the widget counts metrics.  The settle delay can
+     * be shortened with the settleMillis query parameter when nothing else is writing widgets 
+     * (such as in tests).
+     *
+     * @param context
+     */
+    public void reconcile(Context context) {
+        // Extract the request parameters
+        Long settleMillis = context
+            .validatedQueryParam(
+                "settleMillis",
+                String.valueOf(WidgetCountReconciler.DEFAULT_SETTLE_MILLIS))
+            .asLong().getOrThrow();
+        if (settleMillis < 0 || settleMillis > WidgetCountReconciler.MAX_SETTLE_MILLIS) {
+            throw new BadRequestResponse("The \"settleMillis\" parameter must be between 0 and "
+                +WidgetCountReconciler.MAX_SETTLE_MILLIS+".");
+        }
+        // Start reconciling the counts (unless this server is already doing so)
+        if (!widgetCountReconciler.start(settleMillis)) {
+            throw new ConflictResponse("The widget counts are already being reconciled.");
+        }
+        // Set the result future
+        context.status(202);
+        context.result(CompletableFuture.completedFuture(
+            toJson(ImmutableMap.of("reconcile", widgetCountReconciler.getStatus()))));
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    public String toJson(Object object) {
+        return JavalinJackson.INSTANCE.toJson(object);
+    }
+
+}
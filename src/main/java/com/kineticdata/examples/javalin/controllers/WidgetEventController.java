@@ -0,0 +1,203 @@
+package com.kineticdata.examples.javalin.controllers;
+
+import com.google.common.collect.ImmutableMap;
+import com.kineticdata.examples.javalin.events.WidgetEventBus;
+import com.kineticdata.examples.javalin.events.WidgetEventBus.CloseReason;
+import com.kineticdata.examples.javalin.events.WidgetEventBus.Entry;
+import com.kineticdata.examples.javalin.events.WidgetEventBus.Subscriber;
+import com.kineticdata.examples.javalin.events.WidgetEventBus.Subscription;
+import io.javalin.Context;
+import io.javalin.json.JavalinJackson;
+import io.javalin.websocket.WsHandler;
+import io.javalin.websocket.WsSession;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+public class WidgetEventController {
+
+    public static final long HEARTBEAT_INTERVAL_SECONDS = 15;
+    public static final int WEBSOCKET_CLOSE_STATUS = 4000;
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final WidgetEventBus eventBus;
+    private final ScheduledExecutorService heartbeatExecutor;
+    private final Executor writeExecutor;
+    private final ConcurrentHashMap<String,Subscription> websocketSubscriptions =
+        new ConcurrentHashMap<>();
+
+    public WidgetEventController(
+        WidgetEventBus eventBus,
+        ScheduledExecutorService heartbeatExecutor,
+        Executor writeExecutor
+    ) {
+        this.eventBus = eventBus;
+        this.heartbeatExecutor = heartbeatExecutor;
+        this.writeExecutor = writeExecutor;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Streams the widget events of a tenant as Server-Sent Events.  Clients resume from the last
+     * event they received with the standard Last-Event-ID header (or the since query parameter).
+     *
+     * Servlet output streams are written to with blocking calls, so the events (and heartbeats) 
+     * are written by threads of the write executor rather than by the event bus or heartbeat 
+     * threads.  If the client stops reading, the connection is aborted once the event bus times
+     * the write out, which releases the writing thread.
+     *
+     * @param context
+     */
+    public void stream(Context context) {
+        // Extract the request parameters
+        String tenantKey = context.pathParam("tenantKey");
+        String lastEventId = (context.header("Last-Event-ID") != null)
+            ? context.header("Last-Event-ID")
+            : context.queryParam("since");
+        // Prepare the streaming response
+        StreamingResponse response = new StreamingResponse(context, "text/event-stream", false);
+        context.header("Cache-Control", "no-cache");
+        response.write(": connected\n\n");
+        response.flush();
+        // Prepare a future that is completed once the subscription has been closed
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        // Subscribe to the tenant events
+        Subscription subscription = eventBus.subscribe(tenantKey, lastEventId, new Subscriber() {
+            @Override
+            public CompletableFuture<Void> onEvent(Entry entry) {
+                return write(response,
+                    "id: "+entry.getId()+"\n"
+                    +"event: "+entry.getType().name().toLowerCase()+"\n"
+                    +"data: "+toJson(entry)+"\n\n");
+            }
+            @Override
+            public void onClose(CloseReason reason) {
+                if (reason == CloseReason.TIMED_OUT) {
+                    // The client isn't reading, so abort the connection (which fails the write
+                    // that is blocked on it)
+                    Request request = Request.getBaseRequest(context.req);
+                    if (request != null) {
+                        request.getHttpChannel().abort(
+                            new TimeoutException("The widget event write timed out."));
+                    }
+                    future.complete(null);
+                } else if (reason == CloseReason.LAGGED || reason == CloseReason.EXPIRED) {
+                    // Let the client know it needs to re-synchronize (rather than just reconnect)
+                    write(response,
+                        "event: closed\n"
+                        +"data: "+toJson(ImmutableMap.of("reason", reason))+"\n\n")
+                        .whenComplete((result, throwable) -> future.complete(null));
+                } else {
+                    future.complete(null);
+                }
+            }
+        });
+        // Periodically write a comment so that disconnected clients are noticed (and closed) even
+        // when there are no events, skipping the heartbeat while the previous one is unwritten
+        AtomicBoolean heartbeatPending = new AtomicBoolean(false);
+        ScheduledFuture<?> heartbeat = heartbeatExecutor.scheduleWithFixedDelay(() -> {
+            if (heartbeatPending.compareAndSet(false, true)) {
+                write(response, ": heartbeat\n\n").whenComplete((result, throwable) -> {
+                    heartbeatPending.set(false);
+                    if (throwable != null) {
+                        subscription.close();
+                    }
+                });
+            }
+        }, HEARTBEAT_INTERVAL_SECONDS, HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        future.whenComplete((result, throwable) -> heartbeat.cancel(false));
+        // Set the result future
+        context.result(future);
+    }
+
+    /**
+     * Configures a WebSocket endpoint that sends each widget event of a tenant as a JSON text
+     * message.  Clients resume from the last event they received with the since query parameter.
+     *
+     * @param ws
+     */
+    public void socket(WsHandler ws) {
+        ws.onConnect(session -> {
+            Subscription subscription = eventBus.subscribe(
+                session.pathParam("tenantKey"),
+                session.queryParam("since"),
+                new Subscriber() {
+                    @Override
+                    public CompletableFuture<Void> onEvent(Entry entry) {
+                        return send(session, toJson(entry));
+                    }
+                    @Override
+                    public void onClose(CloseReason reason) {
+                        if (reason == CloseReason.TIMED_OUT) {
+                            // The client isn't reading, so a close frame would never be sent
+                            session.disconnect();
+                        } else if (reason != CloseReason.UNSUBSCRIBED && session.isOpen()) {
+                            session.close(WEBSOCKET_CLOSE_STATUS, reason.name());
+                        }
+                    }
+                });
+            websocketSubscriptions.put(session.getId(), subscription);
+        });
+        ws.onClose((session, status, reason) -> unsubscribe(session.getId()));
+        ws.onError((session, throwable) -> unsubscribe(session.getId()));
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Writes the text to the streaming response from a thread of the write executor, returning a
+     * future that completes once it has been written and flushed.
+     */
+    protected CompletableFuture<Void> write(StreamingResponse response, String text) {
+        return CompletableFuture.runAsync(() -> {
+            response.write(text);
+            response.flush();
+        }, writeExecutor);
+    }
+
+    /**
+     * Asynchronously sends the text as a WebSocket message, returning a future that completes once
+     * it has been sent.
+     */
+    protected CompletableFuture<Void> send(WsSession session, String text) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        session.getRemote().sendString(text, new WriteCallback() {
+            @Override
+            public void writeSuccess() {
+                result.complete(null);
+            }
+            @Override
+            public void writeFailed(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+        });
+        return result;
+    }
+
+    protected void unsubscribe(String sessionId) {
+        Subscription subscription = websocketSubscriptions.remove(sessionId);
+        if (subscription != null) {
+            subscription.close();
+        }
+    }
+
+    public String toJson(Object object) {
+        return JavalinJackson.INSTANCE.toJson(object);
+    }
+
+}
@@ -0,0 +1,347 @@
+package com.kineticdata.examples.javalin.counts;
+
+import com.datastax.driver.core.TokenRange;
+import com.google.common.collect.ImmutableMap;
+import com.kineticdata.examples.javalin.daos.WidgetDao;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Repairs the per-tenant widget counts, which drift when a counter update fails (or when a create
+ * overwrites an existing widget, since widgets are written without first checking whether they
+ * exist).
+ *
+ * Each token range is reconciled independently (and several ranges in parallel): the counts in the
+ * range are read, the widgets in the range are scanned and counted by tenant, and the counts are
+ * read again.  A tenant whose stored count changed while its widgets were being scanned is skipped
+ * (it is being written to, so the scanned total can't be trusted) and is repaired by a later run.
+ *
+ * The counter update of a widget write can still be in flight once the counts have been read
+ * again (and it would then be applied on top of the repair), so the counts of the remaining
+ * tenants are read a third time after the settle delay, which is longer than any write can take.
+ * Only a tenant whose count didn't change during that delay is adjusted, by the difference.
+ *
+ * Counter updates are not idempotent, so only one server reconciles the counts at a time: a run
+ * first acquires a lease (a row inserted with a TTL by a lightweight transaction), renews it
+ * before making any repairs, and is skipped if another server holds it.
+ *
+ * A run takes at least the settle delay (plus a scan of the widgets table), so runs are started in
+ * the background and the status of the most recent run of this server is reported by getStatus.
+ */
+public class WidgetCountReconciler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WidgetCountReconciler.class);
+
+    public static final String LEASE_NAME = "widget-count-reconciler";
+    public static final int LEASE_TTL_SECONDS = 10 * 60;
+    /**
+     * Longer than a widget write can take: the counter update of a write is bounded by the longest
+     * request deadline (or by the default read timeout for a write without one).
+     */
+    public static final long DEFAULT_SETTLE_MILLIS = 60 * 1000;
+    /** Short enough that the lease (which is renewed after the delay) can't expire during it. */
+    public static final long MAX_SETTLE_MILLIS = 5 * 60 * 1000;
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final WidgetDao widgetDao;
+    private final int concurrency;
+    private final ScheduledExecutorService timerExecutor;
+    private final String owner = UUID.randomUUID().toString();
+    // The most recent run started by this server (or null if none has been started)
+    private final AtomicReference<Run> lastRun = new AtomicReference<>();
+
+    public WidgetCountReconciler(
+        WidgetDao widgetDao,
+        int concurrency,
+        ScheduledExecutorService timerExecutor
+    ) {
+        this.widgetDao = widgetDao;
+        this.concurrency = concurrency;
+        this.timerExecutor = timerExecutor;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Reconciles the counts every intervalMinutes (waiting for each run to complete before
+     * scheduling the next).
+     *
+     * @param intervalMinutes
+     */
+    public void schedule(long intervalMinutes) {
+        timerExecutor.schedule(() -> {
+            CompletableFuture<Map<String,Object>> future = begin(DEFAULT_SETTLE_MILLIS);
+            if (future == null) {
+                LOGGER.info("Skipped reconciling the widget counts, since a run is in progress.");
+                schedule(intervalMinutes);
+            } else {
+                future.whenComplete((summary, throwable) -> schedule(intervalMinutes));
+            }
+        }, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Starts reconciling the counts in the background (the outcome is reported by getStatus), 
+     * unless this server is already doing so.
+     *
+     * @param settleMillis
+     * @return whether the run was started
+     */
+    public boolean start(long settleMillis) {
+        return begin(settleMillis) != null;
+    }
+
+    /**
+     * Returns the status of the most recent run started by this server: whether it is still
+     * running, when it started and completed, and its summary (or error).
+     *
+     * @return
+     */
+    public ImmutableMap<String,Object> getStatus() {
+        Run run = lastRun.get();
+        return (run == null) ? ImmutableMap.of("running", false) : run.toMap();
+    }
+
+    /**
+     * Asynchronously reconciles the counts of every tenant, returning a summary of the run
+     * (whether it ran, which it doesn't if another server holds the lease, and the number of
+     * tenants checked, repaired, and skipped because they changed during the run).
+     *
+     * @param settleMillis
+     * @return
+     */
+    public CompletableFuture<Map<String,Object>> reconcile(long settleMillis) {
+        return widgetDao
+            .acquireLease(LEASE_NAME, owner, LEASE_TTL_SECONDS)
+            .thenCompose(acquired -> {
+                if (!acquired) {
+                    return CompletableFuture.completedFuture(
+                        ImmutableMap.<String,Object>of("reconciled", false));
+                }
+                // Start the run from a completed future, so that a failure to even start it (such
+                // as when the token ranges can't be read) fails the run rather than escaping
+                return CompletableFuture.completedFuture(settleMillis)
+                    .thenCompose(this::reconcileRanges)
+                    // Release the lease whether or not the run succeeded (a lease that can't be
+                    // released simply expires)
+                    .whenComplete((summary, throwable) -> widgetDao
+                        .releaseLease(LEASE_NAME, owner)
+                        .exceptionally(releaseThrowable -> {
+                            LOGGER.warn("There was a problem releasing the "+LEASE_NAME+" lease.",
+                                releaseThrowable);
+                            return false;
+                        }));
+            });
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Starts a run unless one started by this server is still in progress, returning its future 
+     * (or null if it wasn't started).
+     */
+    private CompletableFuture<Map<String,Object>> begin(long settleMillis) {
+        Run previousRun = lastRun.get();
+        Run run = new Run(settleMillis);
+        if (
+            (previousRun != null && previousRun.isRunning())
+            || !lastRun.compareAndSet(previousRun, run)
+        ) {
+            return null;
+        }
+        CompletableFuture<Map<String,Object>> future;
+        try {
+            future = reconcile(settleMillis);
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        return future.whenComplete((summary, throwable) -> {
+            run.complete(summary, throwable);
+            if (throwable == null) {
+                LOGGER.info("Reconciled the widget counts: "+summary);
+            } else {
+                LOGGER.error("There was a problem reconciling the widget counts.", throwable);
+            }
+        });
+    }
+
+    private CompletableFuture<Map<String,Object>> reconcileRanges(long settleMillis) {
+        AtomicLong checked = new AtomicLong();
+        AtomicLong repaired = new AtomicLong();
+        AtomicLong skipped = new AtomicLong();
+        List<TokenRange> tokenRanges = widgetDao.tokenRanges(1);
+        return WidgetDao
+            .inParallel(tokenRanges.size(), concurrency, index -> reconcile(
+                tokenRanges.get(index),
+                settleMillis,
+                checked,
+                repaired,
+                skipped))
+            .thenApply(ignored -> ImmutableMap.<String,Object>of(
+                "reconciled", true,
+                "checked", checked.get(),
+                "repaired", repaired.get(),
+                "skipped", skipped.get()));
+    }
+
+    private CompletableFuture<Void> reconcile(
+        TokenRange tokenRange,
+        long settleMillis,
+        AtomicLong checked,
+        AtomicLong repaired,
+        AtomicLong skipped
+    ) {
+        // Read the stored counts before scanning
+        return widgetDao.scanCounts(tokenRange).thenCompose(countsBefore ->
+            // Count the widgets of each tenant in the range
+            countWidgets(tokenRange).thenCompose(scannedCounts ->
+                // Read the stored counts again, and determine which tenants need to be repaired
+                widgetDao.scanCounts(tokenRange).thenCompose(countsAfter -> {
+                    Set<String> tenantKeys = new HashSet<>(scannedCounts.keySet());
+                    tenantKeys.addAll(countsAfter.keySet());
+                    Set<String> driftedTenantKeys = new HashSet<>();
+                    for (String tenantKey : tenantKeys) {
+                        checked.incrementAndGet();
+                        long scannedCount = scannedCounts.getOrDefault(tenantKey, 0L);
+                        long storedCount = countsAfter.getOrDefault(tenantKey, 0L);
+                        if (scannedCount == storedCount) {
+                            continue;
+                        }
+                        Long countBefore = countsBefore.get(tenantKey);
+                        if (!Objects.equals(countBefore, countsAfter.get(tenantKey))) {
+                            skipped.incrementAndGet();
+                            continue;
+                        }
+                        driftedTenantKeys.add(tenantKey);
+                    }
+                    if (driftedTenantKeys.isEmpty()) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    // Wait for any counter updates that were still in flight to be applied, then
+                    // repair the tenants whose counts didn't change in the meantime
+                    return delay(settleMillis)
+                        .thenCompose(ignored -> widgetDao.scanCounts(tokenRange))
+                        .thenCompose(settledCounts -> renewLease().thenCompose(ignored -> {
+                            List<CompletableFuture<Void>> repairs = new ArrayList<>();
+                            for (String tenantKey : driftedTenantKeys) {
+                                if (!Objects.equals(
+                                    countsAfter.get(tenantKey),
+                                    settledCounts.get(tenantKey))
+                                ) {
+                                    skipped.incrementAndGet();
+                                    continue;
+                                }
+                                repaired.incrementAndGet();
+                                repairs.add(widgetDao.adjustCount(
+                                    tenantKey,
+                                    scannedCounts.getOrDefault(tenantKey, 0L)
+                                        - settledCounts.getOrDefault(tenantKey, 0L)));
+                            }
+                            return CompletableFuture.allOf(
+                                repairs.toArray(new CompletableFuture[repairs.size()]));
+                        }));
+                })));
+    }
+
+    private CompletableFuture<Map<String,Long>> countWidgets(TokenRange tokenRange) {
+        return widgetDao.scan(
+            tokenRange,
+            null,
+            new HashMap<String,Long>(),
+            (counts, row) -> {
+                counts.merge(row.getString(WidgetDao.Fields.TENANT_KEY), 1L, Long::sum);
+                return true;
+            },
+            null);
+    }
+
+    private CompletableFuture<Void> renewLease() {
+        return widgetDao.renewLease(LEASE_NAME, owner, LEASE_TTL_SECONDS).thenAccept(renewed -> {
+            if (!renewed) {
+                throw new IllegalStateException("The "+LEASE_NAME+" lease was lost.");
+            }
+        });
+    }
+
+    private CompletableFuture<Void> delay(long millis) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (millis <= 0) {
+            result.complete(null);
+        } else {
+            timerExecutor.schedule(() -> result.complete(null), millis, TimeUnit.MILLISECONDS);
+        }
+        return result;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *--------------------------------------------------------------------------------------------*/
+
+    private static class Run {
+        private final long settleMillis;
+        private final long startedAt = System.currentTimeMillis();
+        private volatile long completedAt = 0;
+        private volatile Map<String,Object> summary;
+        private volatile String error;
+
+        public Run(long settleMillis) {
+            this.settleMillis = settleMillis;
+        }
+
+        public boolean isRunning() {
+            return completedAt == 0;
+        }
+
+        public void complete(Map<String,Object> summary, Throwable throwable) {
+            if (throwable instanceof CompletionException && throwable.getCause() != null) {
+                throwable = throwable.getCause();
+            }
+            this.summary = summary;
+            this.error = (throwable == null) ? null : String.valueOf(throwable.getMessage());
+            this.completedAt = System.currentTimeMillis();
+        }
+
+        public ImmutableMap<String,Object> toMap() {
+            // Read the completion time first, since it is written last
+            long completedAt = this.completedAt;
+            ImmutableMap.Builder<String,Object> result = ImmutableMap.<String,Object>builder()
+                .put("running", completedAt == 0)
+                .put("settleMillis", settleMillis)
+                .put("startedAt", Instant.ofEpochMilli(startedAt).toString());
+            if (completedAt != 0) {
+                result.put("completedAt", Instant.ofEpochMilli(completedAt).toString());
+                if (summary != null) {
+                    result.put("summary", summary);
+                }
+                if (error != null) {
+                    result.put("error", error);
+                }
+            }
+            return result.build();
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.kineticdata.examples.javalin.daos;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.ImmutableList;
+import com.kineticdata.examples.javalin.deadlines.Deadline;
+import com.kineticdata.examples.javalin.events.WidgetEvent;
+import com.kineticdata.examples.javalin.models.Widget;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * A straight-line, blocking version of the WidgetDao operations.
+ * 
+ * Each call blocks the calling thread until Cassandra responds (including while iterating through
+ * additional result pages), so it is intended to be called from virtual threads, where blocking is
+ * cheap, rather than from a small pool of platform threads.  Statements are bound (and events are
+ * published, and counts are adjusted) by the wrapped WidgetDao, so both versions behave 
+ * identically.
+ */
+public class BlockingWidgetDao {
+    
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+    
+    private final Session session;
+    private final WidgetDao widgetDao;
+    
+    public BlockingWidgetDao(Session session, WidgetDao widgetDao) {
+        this.session = session;
+        this.widgetDao = widgetDao;
+    }
+    
+    /**
+     * Returns a view of this dao whose statements are bounded by the specified request deadline.
+     * Blocking calls can't be cancelled, so once the deadline passes no further statements (or 
+     * result pages) are started, and the one in flight is bounded by its read timeout.
+     * 
+     * @param deadline
+     * @return 
+     */
+    public BlockingWidgetDao withDeadline(Deadline deadline) {
+        return new BlockingWidgetDao(session, widgetDao.withDeadline(deadline));
+    }
+    
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+    
+    public ImmutableList<Widget> list(
+        String tenantKey,
+        Integer limit, 
+        String key
+    ) {
+        return list(tenantKey, limit, key, null);
+    }
+    
+    public ImmutableList<Widget> list(
+        String tenantKey,
+        Integer limit, 
+        String key,
+        Collection<String> columns
+    ) {
+        ImmutableList.Builder<Widget> widgets = ImmutableList.builder();
+        BoundStatement statement = widgetDao.bindListStatement(tenantKey, limit, key, columns);
+        widgetDao.applyPagingOptions("list", statement);
+        ResultSet resultSet = execute(statement);
+        while (true) {
+            // Reading past the received rows fetches the next page (reusing the statement), so 
+            // bound the fetch by the deadline first
+            if (resultSet.getAvailableWithoutFetching() == 0) {
+                if (resultSet.isFullyFetched()) {
+                    break;
+                }
+                applyDeadline(statement);
+            }
+            Row row = resultSet.one();
+            if (row == null) {
+                break;
+            }
+            widgets.add(widgetDao.toWidget(row));
+        }
+        return widgets.build();
+    }
+    
+    public Widget create(
+        Widget widget
+    ) {
+        execute(widgetDao.bindCreateStatement(widget));
+        widgetDao.adjustCounts(null, widget).join();
+        widgetDao.publish(WidgetEvent.created(widget));
+        return widget;
+    }
+    
+    public Optional<Widget> retrieve(
+        String tenantKey, 
+        String key
+    ) {
+        return retrieve(tenantKey, key, null);
+    }
+    
+    public Optional<Widget> retrieve(
+        String tenantKey, 
+        String key,
+        Collection<String> columns
+    ) {
+        Row row = execute(widgetDao.bindRetrieveStatement(tenantKey, key, columns)).one();
+        return (row == null) ? Optional.empty() : Optional.of(widgetDao.toWidget(row));
+    }
+    
+    public Widget update(
+        Widget persistedWidget, 
+        Widget widget
+    ) {
+        execute(widgetDao.buildUpdateStatement(persistedWidget, widget));
+        widgetDao.adjustCounts(persistedWidget, widget).join();
+        widgetDao.publish(WidgetEvent.updated(persistedWidget, widget));
+        return widget;
+    }
+    
+    public Widget delete(
+        Widget widget
+    ) {
+        execute(widgetDao.bindDeleteStatement(widget));
+        widgetDao.adjustCounts(widget, null).join();
+        widgetDao.publish(WidgetEvent.deleted(widget));
+        return widget;
+    }
+    
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+    
+    protected ResultSet execute(Statement statement) {
+        applyDeadline(statement);
+        return session.execute(statement);
+    }
+    
+    /**
+     * Limits the read timeout of the statement to the time remaining before the deadline (if 
+     * there is one), throwing a DeadlineExceededException if it has already passed.
+     * 
+     * @param statement 
+     */
+    protected void applyDeadline(Statement statement) {
+        Deadline deadline = widgetDao.getDeadline();
+        if (deadline != null) {
+            statement.setReadTimeoutMillis(deadline.readTimeoutMillis());
+        }
+    }
+    
+}
@@ -0,0 +1,56 @@
+package com.kineticdata.examples.javalin.daos;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the additional pages fetched while streaming the results of a query, along with how long
+ * those fetches took and how long the stream actually had to wait for them.  The difference is the
+ * page wait time that was hidden by reading ahead.
+ */
+public class PagingMetrics {
+    
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+    
+    private final LongAdder pagesFetched = new LongAdder();
+    private final LongAdder pagesReadAhead = new LongAdder();
+    private final LongAdder fetchNanos = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+    
+    public PagingMetrics() {}
+    
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+    
+    public void recordFetch(boolean readAhead, long nanos) {
+        pagesFetched.increment();
+        if (readAhead) {
+            pagesReadAhead.increment();
+        }
+        fetchNanos.add(nanos);
+    }
+    
+    public void recordStall(long nanos) {
+        stalls.increment();
+        stallNanos.add(nanos);
+    }
+    
+    public ImmutableMap<String,Object> toMap() {
+        long fetchMillis = TimeUnit.NANOSECONDS.toMillis(fetchNanos.sum());
+        long stallMillis = TimeUnit.NANOSECONDS.toMillis(stallNanos.sum());
+        return ImmutableMap.<String,Object>builder()
+            .put("pagesFetched", pagesFetched.sum())
+            .put("pagesReadAhead", pagesReadAhead.sum())
+            .put("fetchMillis", fetchMillis)
+            .put("stalls", stalls.sum())
+            .put("stallMillis", stallMillis)
+            .put("hiddenMillis", Math.max(0, fetchMillis - stallMillis))
+            .build();
+    }
+    
+}
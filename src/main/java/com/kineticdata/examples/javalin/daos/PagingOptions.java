@@ -0,0 +1,53 @@
+package com.kineticdata.examples.javalin.daos;
+
+/**
+ * Controls how the pages of a query are fetched.
+ *
+ * The Cassandra driver only allows one page of a result set to be fetched at a time, but pages
+ * that have been fetched are buffered by the result set.  Once the number of rows that have been
+ * received but not yet consumed drops to the prefetch threshold, the next page is fetched in the
+ * background (as long as fewer than maxPagesAhead pages are already buffered ahead of the page
+ * being consumed), so processing the current page overlaps with the round trip for the next.
+ */
+public class PagingOptions {
+    
+    /** Fetches each page only once the previous page has been consumed. */
+    public static final PagingOptions NONE = new PagingOptions(0, 0, 0);
+    
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+    
+    private final int fetchSize;
+    private final int prefetchThreshold;
+    private final int maxPagesAhead;
+    
+    /**
+     * @param fetchSize the number of rows per page (or 0 to use the driver default)
+     * @param prefetchThreshold the number of unconsumed rows at which the next page is fetched
+     * @param maxPagesAhead the number of pages that may be fetched ahead of the current page (or 0
+     *   to disable read-ahead)
+     */
+    public PagingOptions(int fetchSize, int prefetchThreshold, int maxPagesAhead) {
+        this.fetchSize = fetchSize;
+        this.prefetchThreshold = prefetchThreshold;
+        this.maxPagesAhead = maxPagesAhead;
+    }
+    
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+    
+    public int getFetchSize() {
+        return fetchSize;
+    }
+    
+    public int getPrefetchThreshold() {
+        return prefetchThreshold;
+    }
+    
+    public int getMaxPagesAhead() {
+        return maxPagesAhead;
+    }
+    
+}
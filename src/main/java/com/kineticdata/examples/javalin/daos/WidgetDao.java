@@ -2,55 +2,226 @@ package com.kineticdata.examples.javalin.daos;
 
 import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.PagingState;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TokenRange;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.kineticdata.examples.javalin.deadlines.Deadline;
+import com.kineticdata.examples.javalin.events.WidgetEvent;
+import com.kineticdata.examples.javalin.events.WidgetEventListener;
 import com.kineticdata.examples.javalin.models.Widget;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 import static java.util.stream.Collectors.collectingAndThen;
 import static java.util.stream.Collectors.toList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class WidgetDao {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(WidgetDao.class);
 
     public static final String TABLE = "widgets";
     public static class Fields {
         public static final String TENANT_KEY = "tenant_key";
         public static final String KEY = "key";
         public static final String DESCRIPTION = "description";
+        /** The column of each of the (JSON) widget properties. */
+        public static final ImmutableMap<String,String> BY_PROPERTY = ImmutableMap.of(
+            "tenantKey", TENANT_KEY,
+            "key", KEY,
+            "description", DESCRIPTION);
+    }
+    
+    /** The counter table holding the number of widgets of each tenant. */
+    public static final String COUNTS_TABLE = "widget_counts";
+    public static class CountFields {
+        public static final String TENANT_KEY = "tenant_key";
+        public static final String WIDGET_COUNT = "widget_count";
+    }
+    
+    /** 
+     * The table of leases, which are rows inserted with a TTL by lightweight transactions so that
+     * at most one server performs a given background task at any given time.
+     */
+    public static final String LEASES_TABLE = "leases";
+    public static class LeaseFields {
+        public static final String NAME = "name";
+        public static final String OWNER = "owner";
     }
     
+    /** Counts are cached briefly so that clients polling a total don't each read the counter. */
+    public static final long COUNT_CACHE_MILLIS = 1000;
+    private static final int MAX_CACHED_COUNTS = 10000;
+    
+    /** Lists return a single page in most cases, so only read ahead when they are very large. */
+    public static final PagingOptions DEFAULT_LIST_PAGING = new PagingOptions(0, 1000, 1);
+    /** Scans stream the entire table, so buffer up to two smaller pages ahead of them. */
+    public static final PagingOptions DEFAULT_SCAN_PAGING = new PagingOptions(1000, 500, 2);
+    
     /*----------------------------------------------------------------------------------------------
      * CONSTRUCTOR
      *--------------------------------------------------------------------------------------------*/
     
     private final Session session;
-    private final ConcurrentHashMap<String,PreparedStatement> preparedStatements = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,PreparedStatement> preparedStatements;
+    private final List<WidgetEventListener> listeners;
+    private final ConcurrentHashMap<String,PagingOptions> pagingOptions;
+    private final ConcurrentHashMap<String,PagingMetrics> pagingMetrics;
+    private final CountCache countCache;
+    private final Deadline deadline;
     
     public WidgetDao(Session session) {
         this.session = session;
+        this.preparedStatements = new ConcurrentHashMap<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.pagingOptions = new ConcurrentHashMap<>();
+        this.pagingOptions.put("list", DEFAULT_LIST_PAGING);
+        this.pagingOptions.put("scan", DEFAULT_SCAN_PAGING);
+        this.pagingMetrics = new ConcurrentHashMap<>();
+        this.countCache = new CountCache();
+        this.deadline = null;
+    }
+    
+    protected WidgetDao(WidgetDao widgetDao, Deadline deadline) {
+        this.session = widgetDao.session;
+        this.preparedStatements = widgetDao.preparedStatements;
+        this.listeners = widgetDao.listeners;
+        this.pagingOptions = widgetDao.pagingOptions;
+        this.pagingMetrics = widgetDao.pagingMetrics;
+        this.countCache = widgetDao.countCache;
+        this.deadline = deadline;
+    }
+    
+    /**
+     * Returns a view of this dao (sharing its prepared statements, listeners, paging 
+     * configuration and cached counts) whose statements are bounded by the specified request 
+     * deadline.
+     * 
+     * @param deadline
+     * @return 
+     */
+    public WidgetDao withDeadline(Deadline deadline) {
+        return new WidgetDao(this, deadline);
+    }
+    
+    public Deadline getDeadline() {
+        return deadline;
+    }
+    
+    /*----------------------------------------------------------------------------------------------
+     * LISTENER METHODS
+     *--------------------------------------------------------------------------------------------*/
+    
+    public void addListener(WidgetEventListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(WidgetEventListener listener) {
+        listeners.remove(listener);
+    }
+    
+    protected void publish(WidgetEvent event) {
+        for (WidgetEventListener listener : listeners) {
+            // A failing listener should not fail the (already persisted) change or prevent the
+            // remaining listeners from being notified
+            try {
+                listener.onEvent(event);
+            } catch (RuntimeException e) {
+                LOGGER.error("There was a problem notifying a widget event listener.", e);
+            }
+        }
+    }
+    
+    /*----------------------------------------------------------------------------------------------
+     * PAGING METHODS
+     *--------------------------------------------------------------------------------------------*/
+    
+    /**
+     * Sets the paging options used by the specified query ("list" or "scan").
+     * 
+     * @param query
+     * @param options 
+     */
+    public void setPagingOptions(String query, PagingOptions options) {
+        pagingOptions.put(query, options);
+    }
+    
+    public PagingOptions getPagingOptions(String query) {
+        return pagingOptions.getOrDefault(query, PagingOptions.NONE);
+    }
+    
+    public PagingMetrics getPagingMetrics(String query) {
+        return pagingMetrics.computeIfAbsent(query, (name) -> new PagingMetrics());
+    }
+    
+    public ImmutableMap<String,Object> getPagingMetrics() {
+        ImmutableMap.Builder<String,Object> result = ImmutableMap.builder();
+        pagingMetrics.forEach((query, metrics) -> result.put(query, metrics.toMap()));
+        return result.build();
+    }
+    
+    protected PagingOptions applyPagingOptions(String query, Statement statement) {
+        PagingOptions options = getPagingOptions(query);
+        if (options.getFetchSize() > 0) {
+            statement.setFetchSize(options.getFetchSize());
+        }
+        return options;
     }
     
     /*----------------------------------------------------------------------------------------------
      * SERIALIZATION METHODS
      *--------------------------------------------------------------------------------------------*/
     
+    /**
+     * Converts the row to a widget.  Rows selected with a subset of the columns are converted to
+     * partial widgets (with the unselected properties left null).
+     * 
+     * @param row
+     * @return 
+     */
     public Widget toWidget(Row row) {
+        ColumnDefinitions columns = row.getColumnDefinitions();
         return new Widget.Builder()
-            .setTenantKey(row.getString(Fields.TENANT_KEY))
-            .setKey(row.getString(Fields.KEY))
-            .setDescription(row.getString(Fields.DESCRIPTION))
+            .setTenantKey(columns.contains(Fields.TENANT_KEY) 
+                ? row.getString(Fields.TENANT_KEY) 
+                : null)
+            .setKey(columns.contains(Fields.KEY) 
+                ? row.getString(Fields.KEY) 
+                : null)
+            .setDescription(columns.contains(Fields.DESCRIPTION) 
+                ? row.getString(Fields.DESCRIPTION) 
+                : null)
             .build();
     }
     
@@ -63,11 +234,21 @@ public class WidgetDao {
         Integer limit, 
         String offsetKey
     ) {
-        // Obtain the prepared statement
+        return bindListStatement(tenantKey, limit, offsetKey, null);
+    }
+    
+    protected BoundStatement bindListStatement(
+        String tenantKey,
+        Integer limit, 
+        String offsetKey,
+        Collection<String> columns
+    ) {
+        // Obtain the prepared statement (which is prepared once for each selection of columns)
+        String selection = toSelection(columns);
         PreparedStatement preparedStatement = preparedStatements
-            .computeIfAbsent("list", (key) -> {
+            .computeIfAbsent("list:"+selection, (key) -> {
                 return session.prepare(
-                    "SELECT * FROM "+TABLE
+                    "SELECT "+selection+" FROM "+TABLE
                     +" WHERE "+Fields.TENANT_KEY+" = :tenant_key"
                     +" AND "+Fields.KEY+" > :offset_key"
                     +" LIMIT :result_limit");
@@ -79,6 +260,23 @@ public class WidgetDao {
             .setInt("result_limit", limit);
     }
     
+    protected BoundStatement bindScanStatement(
+        TokenRange tokenRange
+    ) {
+        // Obtain the prepared statement
+        PreparedStatement preparedStatement = preparedStatements
+            .computeIfAbsent("scan", (key) -> {
+                return session.prepare(
+                    "SELECT * FROM "+TABLE
+                    +" WHERE token("+Fields.TENANT_KEY+") > :start_token"
+                    +" AND token("+Fields.TENANT_KEY+") <= :end_token");
+            });
+        // Obtain a bound statement
+        return preparedStatement.bind()
+            .setToken("start_token", tokenRange.getStart())
+            .setToken("end_token", tokenRange.getEnd());
+    }
+    
     protected BoundStatement bindCreateStatement(
         Widget widget
     ) {
@@ -109,11 +307,20 @@ public class WidgetDao {
         String tenantKey,
         String key
     ) {
-        // Obtain the prepared statement
+        return bindRetrieveStatement(tenantKey, key, null);
+    }
+    
+    protected BoundStatement bindRetrieveStatement(
+        String tenantKey,
+        String key,
+        Collection<String> columns
+    ) {
+        // Obtain the prepared statement (which is prepared once for each selection of columns)
+        String selection = toSelection(columns);
         PreparedStatement preparedStatement = preparedStatements
-            .computeIfAbsent("retrieve", (name) -> {
+            .computeIfAbsent("retrieve:"+selection, (name) -> {
                 return session.prepare(
-                    "SELECT * FROM "+TABLE
+                    "SELECT "+selection+" FROM "+TABLE
                     +" WHERE "+Fields.TENANT_KEY+" = :tenant_key"
                     +" AND "+Fields.KEY+" = :key");
             });
@@ -143,6 +350,30 @@ public class WidgetDao {
             .setString("description", widget.getDescription());
     }
     
+    protected Statement buildUpdateStatement(
+        Widget persistedWidget, 
+        Widget widget
+    ) {
+        // Define the statement to be executed
+        Statement statement;
+        // If either of the primary key fields changed (indicating that update can't be used)
+        if (
+            !Objects.equals(persistedWidget.getTenantKey(), widget.getTenantKey())
+            || !Objects.equals(persistedWidget.getKey(), widget.getKey())
+        ) {
+            // Prepare the statement
+            statement = new BatchStatement()
+                .add(bindDeleteStatement(persistedWidget))
+                .add(bindCreateStatement(widget));
+        }
+        // If the primary key fields are the same (indicating that an update can be used)
+        else {
+            // Prepare the statement
+            statement = bindUpdateStatement(persistedWidget, widget);
+        }
+        return statement;
+    }
+    
     protected BoundStatement bindDeleteStatement(Widget widget) {
         // Obtain the prepared statement
         PreparedStatement preparedStatement = preparedStatements
@@ -158,6 +389,131 @@ public class WidgetDao {
             .setString("key", widget.getKey());
     }
     
+    protected BoundStatement bindCountStatement(String tenantKey) {
+        // Obtain the prepared statement
+        PreparedStatement preparedStatement = preparedStatements
+            .computeIfAbsent("count", (name) -> {
+                return session.prepare(
+                    "SELECT "+CountFields.WIDGET_COUNT+" FROM "+COUNTS_TABLE
+                    +" WHERE "+CountFields.TENANT_KEY+" = :tenant_key");
+            });
+        // Prepare the bound statement
+        return preparedStatement.bind()
+            .setString("tenant_key", tenantKey);
+    }
+    
+    protected BoundStatement bindAdjustCountStatement(String tenantKey, long delta) {
+        // Obtain the prepared statement
+        PreparedStatement preparedStatement = preparedStatements
+            .computeIfAbsent("adjustCount", (name) -> {
+                return session.prepare(
+                    "UPDATE "+COUNTS_TABLE
+                    +" SET "+CountFields.WIDGET_COUNT+" = "+CountFields.WIDGET_COUNT+" + :delta"
+                    +" WHERE "+CountFields.TENANT_KEY+" = :tenant_key");
+            });
+        // Prepare the bound statement
+        return preparedStatement.bind()
+            .setString("tenant_key", tenantKey)
+            .setLong("delta", delta);
+    }
+    
+    protected BoundStatement bindAcquireLeaseStatement(
+        String leaseName,
+        String owner,
+        int ttlSeconds
+    ) {
+        // Obtain the prepared statement
+        PreparedStatement preparedStatement = preparedStatements
+            .computeIfAbsent("acquireLease", (name) -> {
+                return session.prepare(
+                    "INSERT INTO "+LEASES_TABLE
+                    +" ("+LeaseFields.NAME+", "+LeaseFields.OWNER+") VALUES (:name, :owner)"
+                    +" IF NOT EXISTS USING TTL :ttl");
+            });
+        // Prepare the bound statement
+        return preparedStatement.bind()
+            .setString("name", leaseName)
+            .setString("owner", owner)
+            .setInt("ttl", ttlSeconds);
+    }
+    
+    protected BoundStatement bindRenewLeaseStatement(
+        String leaseName,
+        String owner,
+        int ttlSeconds
+    ) {
+        // Obtain the prepared statement
+        PreparedStatement preparedStatement = preparedStatements
+            .computeIfAbsent("renewLease", (name) -> {
+                return session.prepare(
+                    "UPDATE "+LEASES_TABLE+" USING TTL :ttl"
+                    +" SET "+LeaseFields.OWNER+" = :owner"
+                    +" WHERE "+LeaseFields.NAME+" = :name"
+                    +" IF "+LeaseFields.OWNER+" = :owner");
+            });
+        // Prepare the bound statement
+        return preparedStatement.bind()
+            .setString("name", leaseName)
+            .setString("owner", owner)
+            .setInt("ttl", ttlSeconds);
+    }
+    
+    protected BoundStatement bindReleaseLeaseStatement(String leaseName, String owner) {
+        // Obtain the prepared statement
+        PreparedStatement preparedStatement = preparedStatements
+            .computeIfAbsent("releaseLease", (name) -> {
+                return session.prepare(
+                    "DELETE FROM "+LEASES_TABLE
+                    +" WHERE "+LeaseFields.NAME+" = :name"
+                    +" IF "+LeaseFields.OWNER+" = :owner");
+            });
+        // Prepare the bound statement
+        return preparedStatement.bind()
+            .setString("name", leaseName)
+            .setString("owner", owner);
+    }
+    
+    protected BoundStatement bindScanCountsStatement(TokenRange tokenRange) {
+        // Obtain the prepared statement (the counts table is partitioned by tenant, just like the
+        // widgets table, so the same token range covers the same tenants)
+        PreparedStatement preparedStatement = preparedStatements
+            .computeIfAbsent("scanCounts", (name) -> {
+                return session.prepare(
+                    "SELECT * FROM "+COUNTS_TABLE
+                    +" WHERE token("+CountFields.TENANT_KEY+") > :start_token"
+                    +" AND token("+CountFields.TENANT_KEY+") <= :end_token");
+            });
+        // Obtain a bound statement
+        return preparedStatement.bind()
+            .setToken("start_token", tokenRange.getStart())
+            .setToken("end_token", tokenRange.getEnd());
+    }
+    
+    /**
+     * Returns the counter statements that account for a change from the previous widget (null if 
+     * the widget is being created) to the widget (null if it is being deleted).  Counter updates
+     * can't be batched with the widget statements, so they are executed separately.
+     * 
+     * @param previousWidget
+     * @param widget
+     * @return 
+     */
+    protected List<Statement> buildAdjustCountStatements(Widget previousWidget, Widget widget) {
+        String previousTenantKey = (previousWidget == null) ? null : previousWidget.getTenantKey();
+        String tenantKey = (widget == null) ? null : widget.getTenantKey();
+        List<Statement> statements = new ArrayList<>();
+        // Renaming a widget within a tenant doesn't change the count
+        if (!Objects.equals(previousTenantKey, tenantKey)) {
+            if (previousTenantKey != null) {
+                statements.add(bindAdjustCountStatement(previousTenantKey, -1));
+            }
+            if (tenantKey != null) {
+                statements.add(bindAdjustCountStatement(tenantKey, 1));
+            }
+        }
+        return statements;
+    }
+    
     /*----------------------------------------------------------------------------------------------
      * METHODS
      *--------------------------------------------------------------------------------------------*/
@@ -166,16 +522,39 @@ public class WidgetDao {
         String tenantKey,
         Integer limit, 
         String key
+    ) {
+        return list(tenantKey, limit, key, null);
+    }
+    
+    /**
+     * Lists the widgets of the tenant, only selecting the specified columns (or every column if 
+     * columns is null).
+     * 
+     * @param tenantKey
+     * @param limit
+     * @param key
+     * @param columns
+     * @return 
+     */
+    public CompletableFuture<ImmutableList<Widget>> list(
+        String tenantKey,
+        Integer limit, 
+        String key,
+        Collection<String> columns
     ) {
         // Prepare the statement
         BoundStatement statement = bindListStatement(
             tenantKey,
             limit, 
-            key);
-        // Execute the bound statement
-        return toCompletableFuture(session.executeAsync(statement))
-            // Load all rows asynchronously
-            .thenCompose(WidgetDao::allRows)
+            key,
+            columns);
+        PagingOptions options = applyPagingOptions("list", statement);
+        // Execute the bound statement and load all rows asynchronously
+        return allRows(
+                executeAsync(statement, true),
+                options,
+                getPagingMetrics("list"),
+                deadline)
             // Convert the rows to models
             .thenApply(rows -> rows.stream()
                 .map(this::toWidget)
@@ -189,19 +568,41 @@ public class WidgetDao {
         // Prepare the statement
         BoundStatement statement = bindCreateStatement(widget);
         // Execute the bound statement
-        return toCompletableFuture(session.executeAsync(statement))
-            // Once the statement has executed, return the model
-            .thenApply(resultSet -> widget);
+        return executeAsync(statement, false)
+            // Once the statement has executed, count the widget
+            .thenCompose(resultSet -> adjustCounts(null, widget))
+            // Once the count has been adjusted, publish the event and return the model
+            .thenApply(ignored -> {
+                publish(WidgetEvent.created(widget));
+                return widget;
+            });
     }
     
     public CompletableFuture<Optional<Widget>> retrieve(
         String tenantKey, 
         String key
+    ) {
+        return retrieve(tenantKey, key, null);
+    }
+    
+    /**
+     * Retrieves the widget, only selecting the specified columns (or every column if columns is
+     * null).
+     * 
+     * @param tenantKey
+     * @param key
+     * @param columns
+     * @return 
+     */
+    public CompletableFuture<Optional<Widget>> retrieve(
+        String tenantKey, 
+        String key,
+        Collection<String> columns
     ) {
         // Prepare the statement
-        BoundStatement statement = bindRetrieveStatement(tenantKey, key);
+        BoundStatement statement = bindRetrieveStatement(tenantKey, key, columns);
         // Execute the bound statement
-        return toCompletableFuture(session.executeAsync(statement))
+        return executeAsync(statement, true)
             // Convert the row to an optional model
             .thenApply(resultSet -> {
                 Row row = resultSet.one();
@@ -213,27 +614,17 @@ public class WidgetDao {
         Widget persistedWidget, 
         Widget widget
     ) {
-        // Define the statement to be executed
-        Statement statement;
-        // If either of the primary key fields changed (indicating that update can't be used)
-        if (
-            !Objects.equals(persistedWidget.getTenantKey(), widget.getTenantKey())
-            || !Objects.equals(persistedWidget.getKey(), widget.getKey())
-        ) {
-            // Prepare the statement
-            statement = new BatchStatement()
-                .add(bindDeleteStatement(persistedWidget))
-                .add(bindCreateStatement(widget));
-        }
-        // If the primary key fields are the same (indicating that an update can be used)
-        else {
-            // Prepare the statement
-            statement = bindUpdateStatement(persistedWidget, widget);
-        }
+        // Prepare the statement
+        Statement statement = buildUpdateStatement(persistedWidget, widget);
         // Execute the bound statement
-        return toCompletableFuture(session.executeAsync(statement))
-            // Once the statement has executed, return the model
-            .thenApply(resultSet -> widget);
+        return executeAsync(statement, false)
+            // Once the statement has executed, move the widget's count if its tenant changed
+            .thenCompose(resultSet -> adjustCounts(persistedWidget, widget))
+            // Once the counts have been adjusted, publish the event and return the model
+            .thenApply(ignored -> {
+                publish(WidgetEvent.updated(persistedWidget, widget));
+                return widget;
+            });
     }
     
     public CompletableFuture<Widget> delete(
@@ -242,20 +633,294 @@ public class WidgetDao {
         // Prepare the statement
         BoundStatement statement = bindDeleteStatement(widget);
         // Execute the bound statement
-        return toCompletableFuture(session.executeAsync(statement))
-            // Once the statement has executed, return the model
-            .thenApply(resultSet -> widget);
+        return executeAsync(statement, false)
+            // Once the statement has executed, stop counting the widget
+            .thenCompose(resultSet -> adjustCounts(widget, null))
+            // Once the count has been adjusted, publish the event and return the model
+            .thenApply(ignored -> {
+                publish(WidgetEvent.deleted(widget));
+                return widget;
+            });
+    }
+
+    /**
+     * Returns the number of widgets of the tenant, read from the counter table (and cached for up
+     * to COUNT_CACHE_MILLIS, except after a change made through this dao).
+     * 
+     * @param tenantKey
+     * @return 
+     */
+    public CompletableFuture<Long> count(
+        String tenantKey
+    ) {
+        // Return the cached count if it hasn't expired (otherwise remember the version of the 
+        // cache entry, so that a count read before a change isn't cached after it)
+        long version = countCache.version(tenantKey);
+        Long cachedCount = countCache.get(tenantKey);
+        if (cachedCount != null) {
+            return CompletableFuture.completedFuture(cachedCount);
+        }
+        // Prepare the statement
+        BoundStatement statement = bindCountStatement(tenantKey);
+        // Execute the bound statement
+        return executeAsync(statement, true)
+            // Cache and return the count (which may be briefly negative if it has drifted)
+            .thenApply(resultSet -> {
+                Row row = resultSet.one();
+                long count = Math.max(0, (row == null) ? 0 : row.getLong(CountFields.WIDGET_COUNT));
+                countCache.put(tenantKey, version, count);
+                return count;
+            });
+    }
+    
+    /**
+     * Adds the delta to the count of the tenant (used to repair counts that have drifted).
+     * 
+     * @param tenantKey
+     * @param delta
+     * @return 
+     */
+    public CompletableFuture<Void> adjustCount(
+        String tenantKey,
+        long delta
+    ) {
+        // Counter updates are not idempotent, so they are never cancelled
+        return executeAsync(bindAdjustCountStatement(tenantKey, delta), false)
+            .thenRun(() -> countCache.invalidate(tenantKey));
+    }
+    
+    /**
+     * Attempts to acquire the named lease for the specified owner, completing with true if it was
+     * acquired (the lease expires after the TTL unless it is renewed).
+     * 
+     * @param name
+     * @param owner
+     * @param ttlSeconds
+     * @return 
+     */
+    public CompletableFuture<Boolean> acquireLease(String name, String owner, int ttlSeconds) {
+        return executeAsync(bindAcquireLeaseStatement(name, owner, ttlSeconds), false)
+            .thenApply(ResultSet::wasApplied);
+    }
+    
+    /**
+     * Extends the named lease by the TTL, completing with false if the owner no longer holds it.
+     * 
+     * @param name
+     * @param owner
+     * @param ttlSeconds
+     * @return 
+     */
+    public CompletableFuture<Boolean> renewLease(String name, String owner, int ttlSeconds) {
+        return executeAsync(bindRenewLeaseStatement(name, owner, ttlSeconds), false)
+            .thenApply(ResultSet::wasApplied);
+    }
+    
+    public CompletableFuture<Boolean> releaseLease(String name, String owner) {
+        return executeAsync(bindReleaseLeaseStatement(name, owner), false)
+            .thenApply(ResultSet::wasApplied);
+    }
+    
+    /**
+     * Returns the stored count of each tenant whose partition token falls within the range.
+     * 
+     * @param tokenRange
+     * @return 
+     */
+    public CompletableFuture<Map<String,Long>> scanCounts(
+        TokenRange tokenRange
+    ) {
+        return allRows(executeAsync(bindScanCountsStatement(tokenRange), true))
+            .thenApply(rows -> {
+                Map<String,Long> counts = new HashMap<>();
+                for (Row row : rows) {
+                    counts.put(
+                        row.getString(CountFields.TENANT_KEY),
+                        row.getLong(CountFields.WIDGET_COUNT));
+                }
+                return counts;
+            });
+    }
+
+    /**
+     * Returns the token ranges of the cluster ring, unwrapped and sorted so that the list (and 
+     * therefore the index of each range) is stable for as long as the ring topology is unchanged.
+     * Each ring range is further split into the specified number of sub-ranges.
+     * 
+     * @param splits
+     * @return 
+     */
+    public List<TokenRange> tokenRanges(
+        int splits
+    ) {
+        List<TokenRange> result = new ArrayList<>();
+        for (TokenRange ringRange : session.getCluster().getMetadata().getTokenRanges()) {
+            for (TokenRange unwrappedRange : ringRange.unwrap()) {
+                result.addAll((splits > 1)
+                    ? unwrappedRange.splitEvenly(splits)
+                    : ImmutableList.of(unwrappedRange));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+    
+    /**
+     * Asynchronously streams every row of the widgets table whose partition token falls within the
+     * specified range, optionally resuming from a paging state previously reported to the 
+     * pageCompleteFunction.
+     * 
+     * @param <T>
+     * @param tokenRange
+     * @param pagingState
+     * @param memo
+     * @param iterateRowsUntilFunction
+     * @param pageCompleteFunction
+     * @return 
+     */
+    public <T> CompletableFuture<T> scan(
+        TokenRange tokenRange,
+        PagingState pagingState,
+        T memo,
+        IterateRowsUntilFunction<T> iterateRowsUntilFunction,
+        PageCompleteFunction<T> pageCompleteFunction
+    ) {
+        return scan(tokenRange, pagingState, memo, iterateRowsUntilFunction, pageCompleteFunction, 
+            null);
+    }
+    
+    /**
+     * Asynchronously streams every row of the widgets table whose partition token falls within the
+     * specified range (as above), calling the iterate and page complete functions from threads of 
+     * the specified executor (if there is one) rather than from whichever thread received the page.
+     * This allows the functions to block (such as when writing rows to a slow client) without 
+     * stalling threads that are shared with the rest of the application.
+     * 
+     * @param <T>
+     * @param tokenRange
+     * @param pagingState
+     * @param memo
+     * @param iterateRowsUntilFunction
+     * @param pageCompleteFunction
+     * @param executor
+     * @return 
+     */
+    public <T> CompletableFuture<T> scan(
+        TokenRange tokenRange,
+        PagingState pagingState,
+        T memo,
+        IterateRowsUntilFunction<T> iterateRowsUntilFunction,
+        PageCompleteFunction<T> pageCompleteFunction,
+        Executor executor
+    ) {
+        // Prepare the statement
+        BoundStatement statement = bindScanStatement(tokenRange);
+        if (pagingState != null) {
+            statement.setPagingState(pagingState);
+        }
+        PagingOptions options = applyPagingOptions("scan", statement);
+        // Execute the bound statement and stream the results
+        return asynchronouslyStream(
+            executeAsync(statement, true),
+            memo,
+            iterateRowsUntilFunction,
+            pageCompleteFunction,
+            options,
+            getPagingMetrics("scan"),
+            deadline,
+            executor);
     }
 
     /*----------------------------------------------------------------------------------------------
      * HELPER METHODS
      *--------------------------------------------------------------------------------------------*/
     
+    /**
+     * Executes the statement, bounded by the deadline of this dao (if there is one): the statement
+     * is not started once the deadline has passed and its read timeout is limited to the time that
+     * remains (writes included).  Only idempotent statements are cancelled when the deadline 
+     * passes, since a write that is already in flight may still be applied (and its event would 
+     * then never be published), so writes rely on their read timeout alone.
+     * 
+     * @param statement
+     * @param idempotent
+     * @return 
+     */
+    protected CompletableFuture<ResultSet> executeAsync(Statement statement, boolean idempotent) {
+        if (deadline == null) {
+            return toCompletableFuture(session.executeAsync(statement));
+        }
+        try {
+            statement.setReadTimeoutMillis(deadline.readTimeoutMillis());
+        } catch (RuntimeException e) {
+            CompletableFuture<ResultSet> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+        CompletableFuture<ResultSet> future = toCompletableFuture(session.executeAsync(statement));
+        return idempotent ? deadline.register(future) : future;
+    }
+    
+    /**
+     * Executes the counter statements that account for a change to a widget.  Counter updates are
+     * not idempotent, so they are never cancelled, but like any other statement their read timeout
+     * is limited to the time that remains before the deadline (and they aren't started once it 
+     * has passed).  The change has already been applied by then, so a failure is only logged (the 
+     * drift is repaired by the WidgetCountReconciler) rather than failing the change.
+     * 
+     * @param previousWidget
+     * @param widget
+     * @return 
+     */
+    protected CompletableFuture<Void> adjustCounts(Widget previousWidget, Widget widget) {
+        List<CompletableFuture<ResultSet>> futures = new ArrayList<>();
+        for (Statement statement : buildAdjustCountStatements(previousWidget, widget)) {
+            futures.add(executeAsync(statement, false));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]))
+            .handle((result, throwable) -> {
+                if (previousWidget != null) {
+                    countCache.invalidate(previousWidget.getTenantKey());
+                }
+                if (widget != null) {
+                    countCache.invalidate(widget.getTenantKey());
+                }
+                if (throwable != null) {
+                    LOGGER.warn("There was a problem adjusting the widget counts.", throwable);
+                }
+                return null;
+            });
+    }
+    
+    /**
+     * Returns the CQL selection for the specified columns, which are sorted (and de-duplicated) so 
+     * that each distinct set of columns maps to a single prepared statement.
+     * 
+     * @param columns
+     * @return 
+     */
+    protected static String toSelection(Collection<String> columns) {
+        if (columns == null || columns.isEmpty()) {
+            return "*";
+        }
+        for (String column : columns) {
+            if (!Fields.BY_PROPERTY.containsValue(column)) {
+                throw new IllegalArgumentException("The \""+column+"\" column does not exist.");
+            }
+        }
+        return String.join(", ", new TreeSet<>(columns));
+    }
+    
     @FunctionalInterface
     public interface IterateRowsUntilFunction<T> {
         public boolean apply(T memo, Row row);
     }
     
+    @FunctionalInterface
+    public interface PageCompleteFunction<T> {
+        public void apply(T memo, PagingState pagingState);
+    }
+    
     /**
      * This method is used to asynchronously wrap the ResultSet::all call, which may block the 
      * thread when iterating through Cassandra result pages (see
@@ -280,13 +945,32 @@ public class WidgetDao {
      */
     public static CompletableFuture<List<Row>> allRows(
         CompletableFuture<ResultSet> resultSetFuture
+    ) {
+        return allRows(resultSetFuture, PagingOptions.NONE, null, null);
+    }
+    
+    /**
+     * This method is used to asynchronously wrap the ResultSet::all call, reading pages ahead as
+     * specified by the paging options.
+     * 
+     * @param resultSetFuture
+     * @param pagingOptions
+     * @param pagingMetrics
+     * @param deadline
+     * @return 
+     */
+    public static CompletableFuture<List<Row>> allRows(
+        CompletableFuture<ResultSet> resultSetFuture,
+        PagingOptions pagingOptions,
+        PagingMetrics pagingMetrics,
+        Deadline deadline
     ) {
         return asynchronouslyStream(resultSetFuture, new ArrayList<>(), (memo, row) -> {
             // Add the row to the memoized result
             memo.add(row);
             // Continue streaming
             return true;
-        });
+        }, null, pagingOptions, pagingMetrics, deadline);
     }
     
     /**
@@ -304,29 +988,166 @@ public class WidgetDao {
         T memo, 
         IterateRowsUntilFunction<T> iterateRowsUntilFunction
     ) {
-        return resultSetFuture.thenCompose(resultSet -> {
-            int remainingInPage = resultSet.getAvailableWithoutFetching();
-
-            boolean continueIterating = false;
-            for (Row row : resultSet) {
-                continueIterating = iterateRowsUntilFunction.apply(memo, row);
-                if (--remainingInPage == 0 || !continueIterating)
-                    break;
-            }
-
-            CompletableFuture<T> result;
-            boolean wasLastPage = resultSet.getExecutionInfo().getPagingState() == null;
-            if (!continueIterating || wasLastPage) {
-                result = CompletableFuture.completedFuture(memo);
-            } else {
-                result = asynchronouslyStream(
-                    toCompletableFuture(resultSet.fetchMoreResults()),
-                    memo,
-                    iterateRowsUntilFunction
-                );
-            }
-            return result;
-        });
+        return asynchronouslyStream(resultSetFuture, memo, iterateRowsUntilFunction, null);
+    }
+    
+    /**
+     * This method can be used to asynchronously stream rows from a ResultSet until a certain 
+     * criteria is met.  The pageCompleteFunction (if specified) is called each time a page has 
+     * been fully consumed with the paging state that can be used to resume after that page (which 
+     * is null once the last page has been consumed).
+     * 
+     * @param <T>
+     * @param resultSetFuture
+     * @param memo
+     * @param iterateRowsUntilFunction
+     * @param pageCompleteFunction
+     * @return 
+     */
+    public static <T> CompletableFuture<T> asynchronouslyStream(
+        CompletableFuture<ResultSet> resultSetFuture, 
+        T memo, 
+        IterateRowsUntilFunction<T> iterateRowsUntilFunction,
+        PageCompleteFunction<T> pageCompleteFunction
+    ) {
+        return asynchronouslyStream(
+            resultSetFuture, 
+            memo, 
+            iterateRowsUntilFunction, 
+            pageCompleteFunction, 
+            PagingOptions.NONE, 
+            null,
+            null);
+    }
+    
+    /**
+     * This method can be used to asynchronously stream rows from a ResultSet until a certain 
+     * criteria is met, fetching subsequent pages ahead of when they are needed as specified by the
+     * paging options.  The time spent fetching pages (and waiting for them) is recorded to the 
+     * paging metrics (if specified).  If a deadline is specified, no further pages are fetched 
+     * once it has passed and any page fetch still in flight is cancelled.
+     * 
+     * @param <T>
+     * @param resultSetFuture
+     * @param memo
+     * @param iterateRowsUntilFunction
+     * @param pageCompleteFunction
+     * @param pagingOptions
+     * @param pagingMetrics
+     * @param deadline
+     * @return 
+     */
+    public static <T> CompletableFuture<T> asynchronouslyStream(
+        CompletableFuture<ResultSet> resultSetFuture, 
+        T memo, 
+        IterateRowsUntilFunction<T> iterateRowsUntilFunction,
+        PageCompleteFunction<T> pageCompleteFunction,
+        PagingOptions pagingOptions,
+        PagingMetrics pagingMetrics,
+        Deadline deadline
+    ) {
+        return asynchronouslyStream(
+            resultSetFuture, 
+            memo, 
+            iterateRowsUntilFunction, 
+            pageCompleteFunction, 
+            pagingOptions, 
+            pagingMetrics, 
+            deadline, 
+            null);
+    }
+    
+    /**
+     * This method can be used to asynchronously stream rows from a ResultSet (as above), 
+     * consuming the rows of each page on a thread of the specified executor (if there is one).  By 
+     * default the rows are consumed by whichever thread completed the page fetch, which is only 
+     * suitable for functions that never block.
+     * 
+     * @param <T>
+     * @param resultSetFuture
+     * @param memo
+     * @param iterateRowsUntilFunction
+     * @param pageCompleteFunction
+     * @param pagingOptions
+     * @param pagingMetrics
+     * @param deadline
+     * @param executor
+     * @return 
+     */
+    public static <T> CompletableFuture<T> asynchronouslyStream(
+        CompletableFuture<ResultSet> resultSetFuture, 
+        T memo, 
+        IterateRowsUntilFunction<T> iterateRowsUntilFunction,
+        PageCompleteFunction<T> pageCompleteFunction,
+        PagingOptions pagingOptions,
+        PagingMetrics pagingMetrics,
+        Deadline deadline,
+        Executor executor
+    ) {
+        Function<ResultSet,CompletableFuture<T>> stream = resultSet -> new RowStream<>(
+            resultSet,
+            memo,
+            iterateRowsUntilFunction,
+            pageCompleteFunction,
+            pagingOptions,
+            pagingMetrics,
+            deadline,
+            executor
+        ).stream();
+        return (executor == null)
+            ? resultSetFuture.thenCompose(stream)
+            : resultSetFuture.thenComposeAsync(stream, executor);
+    }
+    
+    /**
+     * Asynchronously runs the specified number of tasks (identified by their index) with at most
+     * the specified number of tasks in flight at any given time.  Once any task fails no further 
+     * tasks are started and the returned future completes exceptionally.
+     * 
+     * @param count
+     * @param concurrency
+     * @param task
+     * @return 
+     */
+    public static CompletableFuture<Void> inParallel(
+        int count,
+        int concurrency,
+        IntFunction<CompletableFuture<?>> task
+    ) {
+        AtomicInteger nextIndex = new AtomicInteger(0);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        CompletableFuture<?>[] workers = 
+            new CompletableFuture<?>[Math.max(0, Math.min(count, concurrency))];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = runNext(count, nextIndex, failed, task);
+        }
+        return CompletableFuture.allOf(workers);
+    }
+    
+    private static CompletableFuture<Void> runNext(
+        int count,
+        AtomicInteger nextIndex,
+        AtomicBoolean failed,
+        IntFunction<CompletableFuture<?>> task
+    ) {
+        int index = nextIndex.getAndIncrement();
+        if (index >= count || failed.get()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<?> taskFuture;
+        try {
+            taskFuture = task.apply(index);
+        } catch (RuntimeException e) {
+            taskFuture = new CompletableFuture<>();
+            taskFuture.completeExceptionally(e);
+        }
+        return taskFuture
+            .whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    failed.set(true);
+                }
+            })
+            .thenCompose(result -> runNext(count, nextIndex, failed, task));
     }
     
     /**
@@ -365,4 +1186,234 @@ public class WidgetDao {
         return completable;
     }
     
+    /*----------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *--------------------------------------------------------------------------------------------*/
+    
+    /**
+     * The cached counts of each tenant.
+     * 
+     * Every entry has a version (unique across the cache), which changes whenever the count is 
+     * cached or invalidated.  A count is only cached if the version of the entry is the same as 
+     * when the count was read, so a read that was in flight when the count was invalidated can't
+     * cache the count from before the change.  Invalidating a count leaves an (already expired) 
+     * entry behind to hold the new version, and a tenant without an entry has the version of the
+     * last eviction, so evicting entries can't re-introduce an older version either.
+     */
+    private static class CountCache {
+        private final ConcurrentHashMap<String,CachedCount> cachedCounts = 
+            new ConcurrentHashMap<>();
+        private final AtomicLong versions = new AtomicLong();
+        private volatile long evictedVersion = 0;
+        
+        public Long get(String tenantKey) {
+            CachedCount cachedCount = cachedCounts.get(tenantKey);
+            return (cachedCount == null || cachedCount.isExpired()) ? null : cachedCount.count;
+        }
+        
+        public long version(String tenantKey) {
+            return version(cachedCounts.get(tenantKey));
+        }
+        
+        public void put(String tenantKey, long version, long count) {
+            if (cachedCounts.size() >= MAX_CACHED_COUNTS) {
+                evictedVersion = versions.incrementAndGet();
+                cachedCounts.values().removeIf(CachedCount::isExpired);
+            }
+            cachedCounts.compute(tenantKey, (key, cachedCount) -> (version(cachedCount) == version)
+                ? new CachedCount(versions.incrementAndGet(), count, COUNT_CACHE_MILLIS)
+                : cachedCount);
+        }
+        
+        public void invalidate(String tenantKey) {
+            cachedCounts.put(tenantKey, new CachedCount(versions.incrementAndGet(), 0, 0));
+        }
+        
+        private long version(CachedCount cachedCount) {
+            return (cachedCount == null) ? evictedVersion : cachedCount.version;
+        }
+    }
+    
+    private static class CachedCount {
+        private final long version;
+        private final long count;
+        private final long expiresAt;
+        
+        public CachedCount(long version, long count, long cacheMillis) {
+            this.version = version;
+            this.count = count;
+            this.expiresAt = System.nanoTime() + cacheMillis * 1_000_000;
+        }
+        
+        public boolean isExpired() {
+            return System.nanoTime() - expiresAt >= 0;
+        }
+    }
+    
+    /**
+     * The state of a single asynchronouslyStream call.
+     * 
+     * The result set buffers every page that has been fetched without distinguishing between them,
+     * so the stream keeps track of where each page ends (and the paging state that resumes after 
+     * it) in order to report completed pages.  Pages are only fetched by the stream itself and only
+     * one fetch is ever in flight, so when that fetch is done the rows received by the result set 
+     * are exactly the rows consumed plus the rows still available.
+     */
+    private static class RowStream<T> {
+        private final ResultSet resultSet;
+        private final T memo;
+        private final IterateRowsUntilFunction<T> iterateRowsUntilFunction;
+        private final PageCompleteFunction<T> pageCompleteFunction;
+        private final PagingOptions pagingOptions;
+        private final PagingMetrics pagingMetrics;
+        private final Deadline deadline;
+        private final Executor executor;
+        // The pages that have been received but not completely consumed (the first of which is the 
+        // page currently being consumed)
+        private final Deque<Page> pages = new ArrayDeque<>();
+        private long consumedRows = 0;
+        private boolean lastPageReceived = false;
+        private ListenableFuture<ResultSet> fetchFuture;
+        
+        public RowStream(
+            ResultSet resultSet, 
+            T memo, 
+            IterateRowsUntilFunction<T> iterateRowsUntilFunction,
+            PageCompleteFunction<T> pageCompleteFunction,
+            PagingOptions pagingOptions,
+            PagingMetrics pagingMetrics,
+            Deadline deadline,
+            Executor executor
+        ) {
+            this.resultSet = resultSet;
+            this.memo = memo;
+            this.iterateRowsUntilFunction = iterateRowsUntilFunction;
+            this.pageCompleteFunction = pageCompleteFunction;
+            this.pagingOptions = pagingOptions;
+            this.pagingMetrics = pagingMetrics;
+            this.deadline = deadline;
+            this.executor = executor;
+            addPage();
+        }
+        
+        public CompletableFuture<T> stream() {
+            try {
+                return consume();
+            } catch (RuntimeException e) {
+                // The stream has failed (such as when a function throws), so stop reading ahead
+                cancelFetch();
+                throw e;
+            }
+        }
+        
+        private CompletableFuture<T> consume() {
+            while (true) {
+                // If a page was fetched since the last row was consumed, record where it ends
+                if (fetchFuture != null && fetchFuture.isDone()) {
+                    try {
+                        fetchFuture.get();
+                    } catch (ExecutionException | InterruptedException e) {
+                        CompletableFuture<T> result = new CompletableFuture<>();
+                        result.completeExceptionally(
+                            e instanceof ExecutionException ? e.getCause() : e);
+                        return result;
+                    }
+                    fetchFuture = null;
+                    addPage();
+                }
+                // Report the pages that have been fully consumed (pages may be empty, such as the 
+                // last page of a token range scan, so there may be several)
+                while (!pages.isEmpty() && pages.peekFirst().end == consumedRows) {
+                    Page page = pages.removeFirst();
+                    if (pageCompleteFunction != null) {
+                        pageCompleteFunction.apply(memo, page.pagingState);
+                    }
+                }
+                // If every row that has been received has been consumed
+                if (pages.isEmpty()) {
+                    if (lastPageReceived) {
+                        return CompletableFuture.completedFuture(memo);
+                    }
+                    // Wait for the next page (which may already be on its way)
+                    fetchMore(false);
+                    long stallStart = System.nanoTime();
+                    Function<ResultSet,CompletableFuture<T>> resume = resultSet -> {
+                        if (pagingMetrics != null) {
+                            pagingMetrics.recordStall(System.nanoTime() - stallStart);
+                        }
+                        return stream();
+                    };
+                    return (executor == null)
+                        ? toCompletableFuture(fetchFuture).thenCompose(resume)
+                        : toCompletableFuture(fetchFuture).thenComposeAsync(resume, executor);
+                }
+                // If the unconsumed rows have dropped to the threshold, read the next page ahead
+                if (
+                    !lastPageReceived
+                    && pages.size() <= pagingOptions.getMaxPagesAhead()
+                    && pages.peekLast().end - consumedRows <= pagingOptions.getPrefetchThreshold()
+                ) {
+                    fetchMore(true);
+                }
+                // Consume the next row (which has already been received, so this never blocks)
+                consumedRows++;
+                if (!iterateRowsUntilFunction.apply(memo, resultSet.one())) {
+                    // The remaining rows won't be consumed, so stop reading ahead
+                    cancelFetch();
+                    return CompletableFuture.completedFuture(memo);
+                }
+            }
+        }
+        
+        private void cancelFetch() {
+            if (fetchFuture != null) {
+                fetchFuture.cancel(true);
+                fetchFuture = null;
+            }
+        }
+        
+        private void addPage() {
+            PagingState pagingState = resultSet.getExecutionInfo().getPagingState();
+            pages.addLast(new Page(
+                consumedRows + resultSet.getAvailableWithoutFetching(), 
+                pagingState));
+            lastPageReceived = pagingState == null;
+        }
+        
+        private void fetchMore(boolean readAhead) {
+            if (fetchFuture == null) {
+                // Don't start fetching another page once the deadline has passed, and otherwise 
+                // limit the read timeout of the page (the original statement is reused by the
+                // driver to fetch each page) to the time that remains
+                if (deadline != null) {
+                    int readTimeoutMillis = deadline.readTimeoutMillis();
+                    Statement statement = resultSet.getExecutionInfo().getStatement();
+                    if (statement != null) {
+                        statement.setReadTimeoutMillis(readTimeoutMillis);
+                    }
+                }
+                long fetchStart = System.nanoTime();
+                fetchFuture = resultSet.fetchMoreResults();
+                if (deadline != null) {
+                    deadline.register(toCompletableFuture(fetchFuture));
+                }
+                if (pagingMetrics != null) {
+                    fetchFuture.addListener(
+                        () -> pagingMetrics.recordFetch(readAhead, System.nanoTime() - fetchStart),
+                        MoreExecutors.directExecutor());
+                }
+            }
+        }
+    }
+    
+    private static class Page {
+        private final long end;
+        private final PagingState pagingState;
+        
+        public Page(long end, PagingState pagingState) {
+            this.end = end;
+            this.pagingState = pagingState;
+        }
+    }
+    
 }
@@ -0,0 +1,172 @@
+package com.kineticdata.examples.javalin.deadlines;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time by which a request must be answered.
+ *
+ * The work done on behalf of a request registers its in-flight futures (such as Cassandra queries)
+ * with the deadline, and they are all cancelled once the deadline passes (or the deadline is 
+ * cancelled), so that requests nobody is waiting for anymore stop consuming resources.  The 
+ * remaining time is also used to bound each individual statement.
+ */
+public class Deadline {
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final long timeoutMillis;
+    private final long expiresAt;
+    private final Set<Future<?>> futures = ConcurrentHashMap.newKeySet();
+    private final Set<CompletableFuture<?>> guards = ConcurrentHashMap.newKeySet();
+    private final CompletableFuture<Void> expiration = new CompletableFuture<>();
+    private final ScheduledFuture<?> timer;
+
+    public Deadline(long timeoutMillis, ScheduledExecutorService timerExecutor) {
+        this.timeoutMillis = timeoutMillis;
+        this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.timer = timerExecutor.schedule(this::cancel, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public long remainingMillis() {
+        long remainingNanos = expiresAt - System.nanoTime();
+        return (remainingNanos <= 0 || expiration.isDone())
+            ? 0
+            : Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos));
+    }
+
+    /**
+     * Returns the read timeout to use for a statement started now, which is the time that remains
+     * (but at least 1ms, since a read timeout of 0 disables the timeout altogether).  Throws a 
+     * DeadlineExceededException if the deadline has already passed.
+     * 
+     * @return 
+     */
+    public int readTimeoutMillis() {
+        long remainingMillis = remainingMillis();
+        if (remainingMillis <= 0) {
+            throw exceeded();
+        }
+        return (int)Math.min(remainingMillis, Integer.MAX_VALUE);
+    }
+
+    public boolean isExpired() {
+        return expiration.isDone() || expiresAt - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Throws a DeadlineExceededException if the deadline has passed (which is used to avoid 
+     * starting any additional work).
+     */
+    public void check() {
+        if (isExpired()) {
+            throw exceeded();
+        }
+    }
+
+    /**
+     * Expires the deadline early (for example, because the client has gone away), cancelling all
+     * of the registered futures.
+     */
+    public void cancel() {
+        if (expiration.complete(null)) {
+            timer.cancel(false);
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            futures.clear();
+            for (CompletableFuture<?> guard : guards) {
+                guard.completeExceptionally(exceeded());
+            }
+            guards.clear();
+        }
+    }
+
+    /**
+     * Registers an in-flight future that is cancelled if the deadline passes before it completes.
+     * 
+     * @param <T>
+     * @param future
+     * @return 
+     */
+    public <T> CompletableFuture<T> register(CompletableFuture<T> future) {
+        futures.add(future);
+        future.whenComplete((result, throwable) -> futures.remove(future));
+        // If the deadline passed while the future was being registered, cancel it now
+        if (expiration.isDone()) {
+            future.cancel(true);
+        }
+        return future;
+    }
+
+    /**
+     * Returns a future that is completed with the result of the specified future, unless the
+     * deadline passes first (in which case it immediately fails with a DeadlineExceededException
+     * rather than waiting for the cancelled work to unwind).  Nothing refers to the returned 
+     * future once the work is complete, so it is not retained by a deadline that outlives it.
+     * 
+     * @param <T>
+     * @param future
+     * @return 
+     */
+    public <T> CompletableFuture<T> guard(CompletableFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        guards.add(result);
+        // If the deadline passed while the result was being registered, fail it now
+        if (expiration.isDone()) {
+            result.completeExceptionally(exceeded());
+        }
+        future.whenComplete((value, throwable) -> {
+            // Once the work is complete there is nothing left to cancel
+            guards.remove(result);
+            timer.cancel(false);
+            if (throwable == null) {
+                result.complete(value);
+            } else if (isExpired() && isCancellation(throwable)) {
+                result.completeExceptionally(exceeded());
+            } else {
+                result.completeExceptionally(throwable);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the exception used to report that the deadline passed.
+     * 
+     * @return 
+     */
+    public DeadlineExceededException exceeded() {
+        return new DeadlineExceededException(
+            "The request did not complete within its "+timeoutMillis+"ms deadline.");
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private static boolean isCancellation(Throwable throwable) {
+        Throwable cause = (throwable instanceof CompletionException && throwable.getCause() != null)
+            ? throwable.getCause()
+            : throwable;
+        return cause instanceof CancellationException || cause instanceof DeadlineExceededException;
+    }
+
+}
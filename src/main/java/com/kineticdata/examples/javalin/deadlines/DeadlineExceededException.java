@@ -0,0 +1,12 @@
+package com.kineticdata.examples.javalin.deadlines;
+
+/**
+ * Indicates that a request was abandoned because its deadline passed.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.kineticdata.examples.javalin.encodings;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.kineticdata.examples.javalin.models.Widget;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+/**
+ * The encodings that request and response bodies can use.  JSON remains the default; the binary
+ * formats are intended for service-to-service callers, which avoid the cost of producing and
+ * parsing JSON text by sending the matching Content-Type and Accept headers.
+ *
+ * Each encoding builds its mapper (and the readers and writers derived from it) once, since
+ * creating them requires introspecting the serialized classes.
+ */
+public enum Encoding {
+    JSON("application/json", new JsonFactory()),
+    SMILE("application/x-jackson-smile", new SmileFactory()),
+    CBOR("application/cbor", new CBORFactory()),
+    MSGPACK("application/msgpack", new MessagePackFactory());
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final String contentType;
+    private final ObjectWriter writer;
+    private final ObjectWriter partialWriter;
+    private final ObjectReader builderReader;
+    private final ObjectReader mapReader;
+
+    private Encoding(String contentType, JsonFactory factory) {
+        ObjectMapper mapper = new ObjectMapper(factory);
+        this.contentType = contentType;
+        this.writer = mapper.writer();
+        // Partial widgets are serialized without the properties that were not selected
+        this.partialWriter = mapper.copy()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .writer();
+        this.builderReader = mapper.readerFor(Widget.Builder.class);
+        this.mapReader = mapper.readerFor(Map.class);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * ACCESSORS
+     *--------------------------------------------------------------------------------------------*/
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Returns the encoding of a request body with the specified Content-Type header.  Bodies have
+     * always been parsed as JSON regardless of the header, so anything other than one of the binary
+     * content types is still treated as JSON.
+     *
+     * @param contentType
+     * @return
+     */
+    public static Encoding forContentType(String contentType) {
+        if (contentType == null) {
+            return JSON;
+        }
+        Encoding encoding = find(mediaType(contentType));
+        return (encoding == null) ? JSON : encoding;
+    }
+
+    /**
+     * Returns the encoding that best satisfies the specified Accept header (preferring the media
+     * type with the highest quality, then the one listed first).  JSON is used when the header is
+     * missing, accepts any type, or doesn't accept any of the supported types.
+     *
+     * @param accept
+     * @return
+     */
+    public static Encoding forAccept(String accept) {
+        if (accept == null) {
+            return JSON;
+        }
+        Encoding result = JSON;
+        double resultQuality = 0;
+        for (String range : accept.split(",")) {
+            String mediaType = mediaType(range);
+            Encoding encoding = isWildcard(mediaType) ? JSON : find(mediaType);
+            double quality = quality(range);
+            if (encoding != null && quality > resultQuality) {
+                result = encoding;
+                resultQuality = quality;
+            }
+        }
+        return result;
+    }
+
+    public byte[] write(Object object) throws IOException {
+        return writer.writeValueAsBytes(object);
+    }
+
+    public byte[] writePartial(Object object) throws IOException {
+        return partialWriter.writeValueAsBytes(object);
+    }
+
+    public Widget.Builder readBuilder(byte[] body) throws IOException {
+        return builderReader.readValue(body);
+    }
+
+    public Map<String,Object> readMap(byte[] body) throws IOException {
+        return mapReader.readValue(body);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private static Encoding find(String mediaType) {
+        for (Encoding encoding : values()) {
+            if (encoding.contentType.equals(mediaType)) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isWildcard(String mediaType) {
+        return "*/*".equals(mediaType) || "application/*".equals(mediaType);
+    }
+
+    private static String mediaType(String value) {
+        int index = value.indexOf(';');
+        return ((index < 0) ? value : value.substring(0, index)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static double quality(String range) {
+        for (String parameter : range.split(";")) {
+            String[] parts = parameter.split("=", 2);
+            if (parts.length == 2 && "q".equals(parts[0].trim())) {
+                try {
+                    return Double.parseDouble(parts[1].trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.kineticdata.examples.javalin.events;
+
+import com.kineticdata.examples.javalin.models.Widget;
+
+public class WidgetEvent {
+    
+    public static enum Type {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+    
+    private final Type type;
+    private final Widget previousWidget;
+    private final Widget widget;
+
+    public WidgetEvent(
+        Type type, 
+        Widget previousWidget, 
+        Widget widget
+    ) {
+        this.type = type;
+        this.previousWidget = previousWidget;
+        this.widget = widget;
+    }
+    
+    public static WidgetEvent created(Widget widget) {
+        return new WidgetEvent(Type.CREATED, null, widget);
+    }
+    
+    public static WidgetEvent updated(Widget previousWidget, Widget widget) {
+        return new WidgetEvent(Type.UPDATED, previousWidget, widget);
+    }
+    
+    public static WidgetEvent deleted(Widget widget) {
+        return new WidgetEvent(Type.DELETED, widget, null);
+    }
+    
+    /*----------------------------------------------------------------------------------------------
+     * ACCESSORS
+     *--------------------------------------------------------------------------------------------*/
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * The widget before the change (null for CREATED events).
+     * 
+     * @return 
+     */
+    public Widget getPreviousWidget() {
+        return previousWidget;
+    }
+
+    /**
+     * The widget after the change (null for DELETED events).
+     * 
+     * @return 
+     */
+    public Widget getWidget() {
+        return widget;
+    }
+    
+}
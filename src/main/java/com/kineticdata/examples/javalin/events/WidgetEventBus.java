@@ -0,0 +1,390 @@
+package com.kineticdata.examples.javalin.events;
+
+import com.kineticdata.examples.javalin.models.Widget;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process, per-tenant fan-out of widget events.
+ *
+ * Each tenant channel keeps the most recent events in a bounded ring buffer and every subscription
+ * is simply a cursor into that ring, so publishing never waits on (or buffers for) individual
+ * subscribers.  Subscriptions are drained on the delivery executor; a subscription whose cursor
+ * falls more than a full ring behind the newest event is dropped rather than slowing down the
+ * publisher or the other subscribers.
+ *
+ * Subscribers write events asynchronously, so a delivery thread is never held by a slow client.
+ * Each subscription has at most one event in flight, and a subscription whose event isn't written
+ * within the write timeout is closed (as is a subscriber that can't keep up with the ring).
+ *
+ * Event ids are of the form "epoch-sequence", where the epoch identifies the tenant channel, so a
+ * client can resume from the last id it received for as long as that event is still in the ring.
+ * A channel (and its ring) is discarded once it has had no subscriptions for the idle timeout, 
+ * after which its ids can no longer be resumed from.
+ */
+public class WidgetEventBus implements WidgetEventListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WidgetEventBus.class);
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 10000;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    public static enum CloseReason {
+        /** The subscription was closed by the subscriber. */
+        UNSUBSCRIBED,
+        /** The subscriber fell too far behind and the events it missed were discarded. */
+        LAGGED,
+        /** The event that the subscriber asked to resume from is no longer available. */
+        EXPIRED,
+        /** The subscriber failed to handle an event. */
+        FAILED,
+        /** The subscriber did not finish writing an event within the write timeout. */
+        TIMED_OUT
+    }
+
+    /**
+     * Receives the events of a subscription.  Both methods are expected to return promptly: 
+     * onEvent starts writing the event and returns a future that completes once it has been 
+     * written (the next event is not delivered until then), and onClose must not block.
+     */
+    public static interface Subscriber {
+        public CompletableFuture<Void> onEvent(Entry entry);
+        public void onClose(CloseReason reason);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong channelCount = new AtomicLong();
+    private final int capacity;
+    private final long writeTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final Executor deliveryExecutor;
+    private final ScheduledExecutorService timerExecutor;
+    private final ConcurrentHashMap<String,Channel> channels = new ConcurrentHashMap<>();
+
+    public WidgetEventBus(
+        int capacity,
+        long writeTimeoutMillis,
+        long idleTimeoutMillis,
+        Executor deliveryExecutor,
+        ScheduledExecutorService timerExecutor
+    ) {
+        this.capacity = capacity;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.deliveryExecutor = deliveryExecutor;
+        this.timerExecutor = timerExecutor;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    @Override
+    public void onEvent(WidgetEvent event) {
+        Widget previousWidget = event.getPreviousWidget();
+        Widget widget = event.getWidget();
+        // If the widget moved between tenants, it was deleted from one and created in the other
+        if (
+            previousWidget != null
+            && widget != null
+            && !Objects.equals(previousWidget.getTenantKey(), widget.getTenantKey())
+        ) {
+            publish(previousWidget.getTenantKey(), WidgetEvent.deleted(previousWidget));
+            publish(widget.getTenantKey(), WidgetEvent.created(widget));
+        } else {
+            publish((widget != null ? widget : previousWidget).getTenantKey(), event);
+        }
+    }
+
+    public void publish(String tenantKey, WidgetEvent event) {
+        // Channels are created by the first subscription, so there is nothing to retain for
+        // tenants that have never been subscribed to
+        Channel channel = channels.get(tenantKey);
+        if (channel != null) {
+            channel.publish(event);
+        }
+    }
+
+    /**
+     * Subscribes to the events of the specified tenant.  If lastEventId is null, only events
+     * published after subscribing are delivered; otherwise delivery resumes with the event after
+     * lastEventId (or the subscription is closed as EXPIRED if that is no longer possible).
+     *
+     * @param tenantKey
+     * @param lastEventId
+     * @param subscriber
+     * @return
+     */
+    public Subscription subscribe(String tenantKey, String lastEventId, Subscriber subscriber) {
+        Subscription subscription;
+        boolean expired = false;
+        while (true) {
+            Channel channel = channels.computeIfAbsent(tenantKey, key -> new Channel(key));
+            synchronized (channel) {
+                // If the channel was discarded after it was looked up, look it up again
+                if (channel.discarded) {
+                    continue;
+                }
+                channel.idleSince = -1;
+                long cursor = channel.nextSequence;
+                if (lastEventId != null) {
+                    long lastSequence = parseSequence(channel, lastEventId);
+                    if (lastSequence < 0 || lastSequence + 1 < channel.oldestSequence()) {
+                        expired = true;
+                    } else {
+                        cursor = Math.min(lastSequence + 1, channel.nextSequence);
+                    }
+                }
+                subscription = new Subscription(channel, cursor, subscriber);
+                if (!expired) {
+                    channel.subscriptions.add(subscription);
+                }
+            }
+            if (expired) {
+                channel.release();
+            }
+            break;
+        }
+        if (expired) {
+            subscription.close(CloseReason.EXPIRED);
+        } else {
+            subscription.signal();
+        }
+        return subscription;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private long parseSequence(Channel channel, String eventId) {
+        int separatorIndex = eventId.indexOf('-');
+        if (separatorIndex < 0 || !channel.epoch.equals(eventId.substring(0, separatorIndex))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(eventId.substring(separatorIndex+1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *--------------------------------------------------------------------------------------------*/
+
+    public static class Entry {
+        private final String id;
+        private final long sequence;
+        private final WidgetEvent event;
+
+        public Entry(String id, long sequence, WidgetEvent event) {
+            this.id = id;
+            this.sequence = sequence;
+            this.event = event;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public WidgetEvent.Type getType() {
+            return event.getType();
+        }
+
+        public Widget getPreviousWidget() {
+            return event.getPreviousWidget();
+        }
+
+        public Widget getWidget() {
+            return event.getWidget();
+        }
+    }
+
+    private class Channel {
+        private final String tenantKey;
+        private final String epoch = WidgetEventBus.this.epoch
+            +"."+Long.toString(channelCount.incrementAndGet(), 36);
+        private final Entry[] ring = new Entry[capacity];
+        private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+        // Guarded by this channel
+        private long nextSequence = 1;
+        private long idleSince = -1;
+        private boolean discarded = false;
+
+        public Channel(String tenantKey) {
+            this.tenantKey = tenantKey;
+        }
+
+        public void publish(WidgetEvent event) {
+            synchronized (this) {
+                long sequence = nextSequence++;
+                ring[(int)(sequence % capacity)] = new Entry(epoch+"-"+sequence, sequence, event);
+            }
+            for (Subscription subscription : subscriptions) {
+                subscription.signal();
+            }
+        }
+
+        /**
+         * Called once a subscription has been removed; if it was the last one, the channel is 
+         * discarded after the idle timeout unless it is subscribed to again in the meantime.
+         */
+        private void release() {
+            synchronized (this) {
+                if (!subscriptions.isEmpty() || idleSince >= 0) {
+                    return;
+                }
+                idleSince = System.nanoTime();
+            }
+            timerExecutor.schedule(this::discardIfIdle, idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void discardIfIdle() {
+            synchronized (this) {
+                if (
+                    idleSince < 0 
+                    || System.nanoTime() - idleSince 
+                        < TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)
+                ) {
+                    return;
+                }
+                discarded = true;
+            }
+            channels.remove(tenantKey, this);
+        }
+
+        private long oldestSequence() {
+            return Math.max(1, nextSequence - capacity);
+        }
+    }
+
+    public class Subscription {
+        private final Channel channel;
+        private final Subscriber subscriber;
+        // Set while the subscription is being drained or has an event in flight
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        // Only advanced by the (single) scheduled drain, or once the event in flight is written
+        private volatile long cursor;
+
+        private Subscription(Channel channel, long cursor, Subscriber subscriber) {
+            this.channel = channel;
+            this.cursor = cursor;
+            this.subscriber = subscriber;
+        }
+
+        public boolean isClosed() {
+            return closed.get();
+        }
+
+        public void close() {
+            close(CloseReason.UNSUBSCRIBED);
+        }
+
+        private void close(CloseReason reason) {
+            if (closed.compareAndSet(false, true)) {
+                channel.subscriptions.remove(this);
+                channel.release();
+                try {
+                    subscriber.onClose(reason);
+                } catch (RuntimeException e) {
+                    LOGGER.error("There was a problem closing a widget event subscription.", e);
+                }
+            }
+        }
+
+        private void signal() {
+            if (!closed.get() && scheduled.compareAndSet(false, true)) {
+                deliveryExecutor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                while (!closed.get()) {
+                    Entry entry = null;
+                    boolean lagged = false;
+                    synchronized (channel) {
+                        if (cursor < channel.oldestSequence()) {
+                            lagged = true;
+                        } else if (cursor < channel.nextSequence) {
+                            entry = channel.ring[(int)(cursor % capacity)];
+                        }
+                    }
+                    // Close lagging subscriptions outside of the channel lock, since closing
+                    // notifies the subscriber
+                    if (lagged) {
+                        close(CloseReason.LAGGED);
+                    }
+                    if (entry == null) {
+                        break;
+                    }
+                    CompletableFuture<Void> delivery = subscriber.onEvent(entry);
+                    // If the event is still being written, release the delivery thread and 
+                    // continue draining once it has been
+                    if (!delivery.isDone()) {
+                        await(delivery);
+                        return;
+                    }
+                    delivery.join();
+                    cursor++;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.debug("There was a problem delivering a widget event.", e);
+                close(CloseReason.FAILED);
+            }
+            unschedule();
+        }
+
+        private void await(CompletableFuture<Void> delivery) {
+            ScheduledFuture<?> timeout = timerExecutor.schedule(
+                () -> close(CloseReason.TIMED_OUT),
+                writeTimeoutMillis,
+                TimeUnit.MILLISECONDS);
+            delivery.whenComplete((result, throwable) -> {
+                timeout.cancel(false);
+                if (throwable == null) {
+                    cursor++;
+                } else {
+                    LOGGER.debug("There was a problem delivering a widget event.", throwable);
+                    close(CloseReason.FAILED);
+                }
+                unschedule();
+            });
+        }
+
+        private void unschedule() {
+            scheduled.set(false);
+            // If an event was published after the last check but before the drain was unscheduled,
+            // the signal for it was ignored so drain again
+            boolean pending;
+            synchronized (channel) {
+                pending = cursor < channel.nextSequence;
+            }
+            if (pending) {
+                signal();
+            }
+        }
+    }
+
+}
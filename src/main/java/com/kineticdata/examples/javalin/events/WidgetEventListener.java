@@ -0,0 +1,10 @@
+package com.kineticdata.examples.javalin.events;
+
+/**
+ * Listeners are notified by the WidgetDao once a change has been successfully persisted.  They 
+ * are called on the thread that completed the Cassandra statement, so they should not block.
+ */
+@FunctionalInterface
+public interface WidgetEventListener {
+    public void onEvent(WidgetEvent event);
+}
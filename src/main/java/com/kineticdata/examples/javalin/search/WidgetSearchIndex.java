@@ -0,0 +1,441 @@
+package com.kineticdata.examples.javalin.search;
+
+import com.datastax.driver.core.TokenRange;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.kineticdata.examples.javalin.daos.WidgetDao;
+import com.kineticdata.examples.javalin.events.WidgetEvent;
+import com.kineticdata.examples.javalin.events.WidgetEventListener;
+import com.kineticdata.examples.javalin.models.Widget;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process, per-tenant trigram index over widget descriptions.
+ *
+ * Every description is broken into (lower cased) three character grams and each gram maps to a
+ * sorted array of document ids.  A query of three or more characters intersects the postings of
+ * its grams and then verifies the (few) remaining candidates; shorter queries simply check every
+ * document of the tenant.
+ *
+ * The index is populated by a background scan of the widgets table and kept up to date by
+ * listening to the widget events published by the WidgetDao.  A scan that fails is retried (with
+ * an increasing delay) until the index has been built, and the progress of the build is reported
+ * by getMetrics.
+ *
+ * The events are only those published by this process, so the index doesn't see the writes made
+ * through other servers sharing the keyspace (until it is next built).
+ */
+public class WidgetSearchIndex implements WidgetEventListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WidgetSearchIndex.class);
+
+    public static enum Match {
+        SUBSTRING,
+        PREFIX
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *--------------------------------------------------------------------------------------------*/
+
+    private final ConcurrentHashMap<String,TenantIndex> tenants = new ConcurrentHashMap<>();
+    private volatile boolean ready = false;
+    private final AtomicLong buildAttempts = new AtomicLong();
+    private final AtomicLong buildFailures = new AtomicLong();
+    private volatile String lastBuildError;
+
+    public WidgetSearchIndex() {}
+
+    /*----------------------------------------------------------------------------------------------
+     * METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public ImmutableMap<String,Object> getMetrics() {
+        String error = lastBuildError;
+        return ImmutableMap.<String,Object>builder()
+            .put("ready", ready)
+            .put("buildAttempts", buildAttempts.get())
+            .put("buildFailures", buildFailures.get())
+            .put("lastBuildError", (error == null) ? "" : error)
+            .build();
+    }
+
+    /**
+     * Asynchronously populates the index by scanning every token range of the widgets table.
+     * Changes published while the scan is running take precedence over the scanned rows.
+     *
+     * @param widgetDao
+     * @param concurrency
+     * @return
+     */
+    public CompletableFuture<Void> build(WidgetDao widgetDao, int concurrency) {
+        buildAttempts.incrementAndGet();
+        List<TokenRange> tokenRanges;
+        try {
+            tokenRanges = widgetDao.tokenRanges(1);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result.whenComplete(this::recordBuild);
+        }
+        return WidgetDao
+            .inParallel(tokenRanges.size(), concurrency, index -> widgetDao.scan(
+                tokenRanges.get(index),
+                null,
+                this,
+                (memo, row) -> {
+                    Widget widget = widgetDao.toWidget(row);
+                    tenant(widget.getTenantKey()).putIfUntouched(widget);
+                    return true;
+                },
+                null))
+            .thenRun(() -> {
+                ready = true;
+                tenants.values().forEach(TenantIndex::completeBuild);
+            })
+            .whenComplete(this::recordBuild);
+    }
+
+    /**
+     * Asynchronously populates the index (as above), retrying a failed scan after the retry delay
+     * (which doubles after each failure, up to the maximum delay) until the index has been built.
+     * Rows scanned by a failed attempt remain in the index and are simply replaced by the next.
+     *
+     * @param widgetDao
+     * @param concurrency
+     * @param retryExecutor
+     * @param retryDelayMillis
+     * @param maxRetryDelayMillis
+     * @return
+     */
+    public CompletableFuture<Void> build(
+        WidgetDao widgetDao,
+        int concurrency,
+        ScheduledExecutorService retryExecutor,
+        long retryDelayMillis,
+        long maxRetryDelayMillis
+    ) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        build(widgetDao, concurrency).whenComplete((ignored, throwable) -> {
+            if (throwable == null) {
+                result.complete(null);
+                return;
+            }
+            LOGGER.warn("There was a problem building the widget search index, retrying in "
+                +retryDelayMillis+"ms.", throwable);
+            retryExecutor.schedule(
+                () -> build(
+                    widgetDao,
+                    concurrency,
+                    retryExecutor,
+                    Math.min(retryDelayMillis * 2, maxRetryDelayMillis),
+                    maxRetryDelayMillis)
+                    .thenRun(() -> result.complete(null)),
+                retryDelayMillis,
+                TimeUnit.MILLISECONDS);
+        });
+        return result;
+    }
+
+    @Override
+    public void onEvent(WidgetEvent event) {
+        if (event.getPreviousWidget() != null) {
+            Widget previousWidget = event.getPreviousWidget();
+            tenant(previousWidget.getTenantKey()).remove(previousWidget.getKey());
+        }
+        if (event.getWidget() != null) {
+            Widget widget = event.getWidget();
+            tenant(widget.getTenantKey()).put(widget);
+        }
+    }
+
+    /**
+     * Returns the widgets of the tenant whose description matches the (case insensitive) query,
+     * ordered by key.
+     *
+     * @param tenantKey
+     * @param query
+     * @param match
+     * @param limit
+     * @return
+     */
+    public ImmutableList<Widget> search(String tenantKey, String query, Match match, int limit) {
+        TenantIndex tenantIndex = tenants.get(tenantKey);
+        return (tenantIndex == null)
+            ? ImmutableList.of()
+            : tenantIndex.search(query.toLowerCase(Locale.ROOT), match, limit);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private void recordBuild(Void result, Throwable throwable) {
+        if (throwable != null) {
+            if (throwable instanceof CompletionException && throwable.getCause() != null) {
+                throwable = throwable.getCause();
+            }
+            buildFailures.incrementAndGet();
+            lastBuildError = String.valueOf(throwable.getMessage());
+        }
+    }
+
+    private TenantIndex tenant(String tenantKey) {
+        return tenants.computeIfAbsent(tenantKey, TenantIndex::new);
+    }
+
+    private static long trigram(String text, int index) {
+        return ((long)text.charAt(index) << 32)
+            | ((long)text.charAt(index+1) << 16)
+            | (long)text.charAt(index+2);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * A growable, sorted array of document ids.  Document ids are assigned in increasing order, so
+     * appending keeps the array sorted.
+     */
+    private static class Postings {
+        private int[] documents = new int[4];
+        private int size = 0;
+
+        public void add(int document) {
+            // A gram that appears more than once in a description is only posted once
+            if (size > 0 && documents[size-1] == document) {
+                return;
+            }
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+            }
+            documents[size++] = document;
+        }
+    }
+
+    private class TenantIndex {
+        private static final int MIN_COMPACTION_SIZE = 1024;
+
+        private final String tenantKey;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        // Guarded by lock
+        private String[] keys = new String[16];
+        private String[] descriptions = new String[16];
+        private String[] normalizedDescriptions = new String[16];
+        private int documentCount = 0;
+        private int removedCount = 0;
+        private final Map<String,Integer> documentsByKey = new HashMap<>();
+        private final Map<Long,Postings> postings = new HashMap<>();
+        // Keys changed by events while the index is being built (null once it has been built)
+        private Set<String> touchedKeys;
+
+        public TenantIndex(String tenantKey) {
+            this.tenantKey = tenantKey;
+            this.touchedKeys = ready ? null : new HashSet<>();
+        }
+
+        public void put(Widget widget) {
+            lock.writeLock().lock();
+            try {
+                if (touchedKeys != null) {
+                    touchedKeys.add(widget.getKey());
+                }
+                removeDocument(widget.getKey());
+                addDocument(widget.getKey(), widget.getDescription());
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        public void putIfUntouched(Widget widget) {
+            lock.writeLock().lock();
+            try {
+                if (touchedKeys == null || !touchedKeys.contains(widget.getKey())) {
+                    removeDocument(widget.getKey());
+                    addDocument(widget.getKey(), widget.getDescription());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        public void remove(String key) {
+            lock.writeLock().lock();
+            try {
+                if (touchedKeys != null) {
+                    touchedKeys.add(key);
+                }
+                removeDocument(key);
+                // Rebuild the postings once most of the documents have been removed
+                if (removedCount > MIN_COMPACTION_SIZE && removedCount > documentCount / 2) {
+                    compact();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        public void completeBuild() {
+            lock.writeLock().lock();
+            try {
+                touchedKeys = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        public ImmutableList<Widget> search(String query, Match match, int limit) {
+            List<Integer> matches = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                if (query.length() < 3) {
+                    // Short queries don't have any grams, so check every document
+                    for (int document = 0; document < documentCount; document++) {
+                        if (matches(document, query, match)) {
+                            matches.add(document);
+                        }
+                    }
+                } else {
+                    int[] candidates = candidates(query);
+                    for (int document : candidates) {
+                        if (matches(document, query, match)) {
+                            matches.add(document);
+                        }
+                    }
+                }
+                // Order the results like a Cassandra listing (by key)
+                String[] matchedKeys = new String[matches.size()];
+                for (int i = 0; i < matchedKeys.length; i++) {
+                    matchedKeys[i] = keys[matches.get(i)];
+                }
+                Arrays.sort(matchedKeys);
+                ImmutableList.Builder<Widget> result = ImmutableList.builder();
+                for (int i = 0; i < matchedKeys.length && i < limit; i++) {
+                    result.add(new Widget(
+                        tenantKey,
+                        matchedKeys[i],
+                        descriptions[documentsByKey.get(matchedKeys[i])]));
+                }
+                return result.build();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private boolean matches(int document, String query, Match match) {
+            String description = normalizedDescriptions[document];
+            if (keys[document] == null || description == null) {
+                return false;
+            }
+            return (match == Match.PREFIX)
+                ? description.startsWith(query)
+                : description.contains(query);
+        }
+
+        private int[] candidates(String query) {
+            // Intersect the postings of each gram, starting with the smallest
+            List<Postings> queryPostings = new ArrayList<>();
+            for (int i = 0; i + 3 <= query.length(); i++) {
+                Postings gramPostings = postings.get(trigram(query, i));
+                if (gramPostings == null) {
+                    return new int[0];
+                }
+                queryPostings.add(gramPostings);
+            }
+            queryPostings.sort((a, b) -> Integer.compare(a.size, b.size));
+            int[] result = Arrays.copyOf(queryPostings.get(0).documents, queryPostings.get(0).size);
+            int resultSize = result.length;
+            for (int p = 1; p < queryPostings.size() && resultSize > 0; p++) {
+                Postings other = queryPostings.get(p);
+                int i = 0, j = 0, size = 0;
+                while (i < resultSize && j < other.size) {
+                    if (result[i] < other.documents[j]) {
+                        i++;
+                    } else if (result[i] > other.documents[j]) {
+                        j++;
+                    } else {
+                        result[size++] = result[i];
+                        i++;
+                        j++;
+                    }
+                }
+                resultSize = size;
+            }
+            return Arrays.copyOf(result, resultSize);
+        }
+
+        private void addDocument(String key, String description) {
+            if (documentCount == keys.length) {
+                keys = Arrays.copyOf(keys, documentCount * 2);
+                descriptions = Arrays.copyOf(descriptions, documentCount * 2);
+                normalizedDescriptions = Arrays.copyOf(normalizedDescriptions, documentCount * 2);
+            }
+            int document = documentCount++;
+            String normalizedDescription = (description == null)
+                ? null
+                : description.toLowerCase(Locale.ROOT);
+            keys[document] = key;
+            descriptions[document] = description;
+            normalizedDescriptions[document] = normalizedDescription;
+            documentsByKey.put(key, document);
+            if (normalizedDescription != null) {
+                for (int i = 0; i + 3 <= normalizedDescription.length(); i++) {
+                    postings
+                        .computeIfAbsent(trigram(normalizedDescription, i), gram -> new Postings())
+                        .add(document);
+                }
+            }
+        }
+
+        private void removeDocument(String key) {
+            Integer document = documentsByKey.remove(key);
+            if (document != null) {
+                // Removed documents are left in the postings (and skipped when verifying matches)
+                // until the index is compacted
+                keys[document] = null;
+                descriptions[document] = null;
+                normalizedDescriptions[document] = null;
+                removedCount++;
+            }
+        }
+
+        private void compact() {
+            String[] previousKeys = Arrays.copyOf(keys, documentCount);
+            String[] previousDescriptions = Arrays.copyOf(descriptions, documentCount);
+            keys = new String[Math.max(16, documentCount - removedCount)];
+            descriptions = new String[keys.length];
+            normalizedDescriptions = new String[keys.length];
+            documentCount = 0;
+            removedCount = 0;
+            documentsByKey.clear();
+            postings.clear();
+            for (int document = 0; document < previousKeys.length; document++) {
+                if (previousKeys[document] != null) {
+                    addDocument(previousKeys[document], previousDescriptions[document]);
+                }
+            }
+        }
+    }
+
+}
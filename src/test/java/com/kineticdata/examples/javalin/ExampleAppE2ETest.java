@@ -1,15 +1,37 @@
 package com.kineticdata.examples.javalin;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
+import com.kineticdata.examples.javalin.encodings.Encoding;
 import com.mashape.unirest.http.HttpResponse;
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
 import com.mashape.unirest.request.BaseRequest;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
 import org.json.JSONObject;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 import testing.kineticdata.examples.javalin.E2ETestBase;
@@ -123,6 +145,615 @@ public class ExampleAppE2ETest extends E2ETestBase {
             });
     }
     
+    @Test
+    public void test_Export() throws Exception {
+        // CREATE
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+                .body(new JSONObject()
+                    .put("key", "foo")
+                    .put("description", "A fooish widget.")), 
+            200, 
+            response -> {
+                assertEquals("foo", response.read("$.widget.key"));
+            });
+        
+        // EXPORT
+        HttpResponse<String> response = Unirest.get(url("/app/api/v1/admin/widgets/export"))
+            .queryString("splits", 2)
+            .asString();
+        assertEquals(200, response.getStatus());
+        boolean exported = false;
+        for (String line : response.getBody().split("\n")) {
+            DocumentContext document = JsonPath.parse(line);
+            if (line.startsWith("{\"widget\"") && tenant.equals(document.read("$.widget.tenantKey"))) {
+                assertEquals("foo", document.read("$.widget.key"));
+                exported = true;
+            }
+        }
+        assertTrue("The widget was not exported.", exported);
+        assertTrue(response.getBody().trim().endsWith(":complete\"}"));
+        
+        // PAGING METRICS (recorded for the scans of the export)
+        request(
+            Unirest.get(url("/app/api/v1/admin/metrics/paging")), 
+            200, 
+            document -> {
+                assertTrue(document.read("$.paging.scan.pagesFetched") instanceof Number);
+                assertTrue(document.read("$.paging.scan.pagesReadAhead") instanceof Number);
+            });
+        
+        // EXPORT (INVALID CONCURRENCY)
+        request(
+            Unirest.get(url("/app/api/v1/admin/widgets/export"))
+                .queryString("concurrency", 0), 
+            400, 
+            document -> {});
+        
+        // EXPORT (INVALID CHECKPOINT)
+        request(
+            Unirest.get(url("/app/api/v1/admin/widgets/export"))
+                .queryString("splits", 2)
+                .queryString("resume", "one:complete"), 
+            400, 
+            document -> {});
+        request(
+            Unirest.get(url("/app/api/v1/admin/widgets/export"))
+                .queryString("splits", 2)
+                .queryString("resume", "0:not-a-paging-state"), 
+            400, 
+            document -> {});
+    }
+    
+    @Test
+    public void test_Import() throws Exception {
+        // BULK
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets/bulk"))
+                .body("["
+                    +"{\"key\":\"foo\",\"description\":\"A fooish widget.\"},"
+                    +"{\"key\":\"bar\",\"description\":\"A barish widget.\"}"
+                +"]"), 
+            200, 
+            response -> {
+                assertEquals(2, (int)response.read("$.import.received"));
+                assertEquals(2, (int)response.read("$.import.created"));
+                assertEquals(0, (int)response.read("$.import.failed"));
+            });
+        
+        // BULK (NOT AN ARRAY)
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets/bulk"))
+                .body("{\"key\":\"foo\",\"description\":\"A fooish widget.\"}"), 
+            400, 
+            response -> {});
+        
+        // NDJSON
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets/import"))
+                .body(""
+                    +"{\"key\":\"baz\",\"description\":\"A bazish widget.\"}\n"
+                    +"{\"key\":\n"
+                    +"{\"description\":\"A keyless widget.\"}\n"
+                    +"{\"key\":\"qux\",\"description\":\"A quxish widget.\"}\n"), 
+            200, 
+            response -> {
+                assertEquals(4, (int)response.read("$.import.received"));
+                assertEquals(2, (int)response.read("$.import.created"));
+                assertEquals(2, (int)response.read("$.import.failed"));
+                assertEquals(2, (int)response.read("$.import.errors[0].line"));
+                assertEquals(3, (int)response.read("$.import.errors[1].line"));
+            });
+        
+        // LIST
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets")), 
+            200, 
+            response -> {
+                assertEquals(4, ((List)response.read("$.widgets")).size());
+            });
+    }
+    
+    @Test
+    public void test_Events_ExpiredResume() throws Exception {
+        // A subscription that can't be resumed is closed immediately (so the client re-syncs)
+        HttpResponse<String> response = Unirest
+            .get(url("/app/api/v1/tenants/"+tenant+"/widgets/events"))
+            .header("Last-Event-ID", "unknown-1")
+            .asString();
+        assertEquals(200, response.getStatus());
+        assertTrue(response.getBody().contains("event: closed\ndata: {\"reason\":\"EXPIRED\"}"));
+    }
+    
+    @Test
+    public void test_Events_ServerSentEvents() throws Exception {
+        // SUBSCRIBE
+        String createdId;
+        long createdSequence;
+        HttpURLConnection connection = openEventStream(null);
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))
+        ) {
+            assertEquals(": connected", reader.readLine());
+            
+            // CREATE
+            request(
+                Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+                    .body(new JSONObject()
+                        .put("key", "foo")
+                        .put("description", "A fooish widget.")), 
+                200, 
+                response -> {});
+            
+            // The write is delivered to the subscriber
+            Map<String,String> event = readEvent(reader);
+            assertEquals("created", event.get("event"));
+            DocumentContext document = JsonPath.parse(event.get("data"));
+            assertEquals(event.get("id"), document.read("$.id"));
+            assertEquals("foo", document.read("$.widget.key"));
+            createdId = event.get("id");
+            createdSequence = ((Number)document.read("$.sequence")).longValue();
+        } finally {
+            connection.disconnect();
+        }
+        
+        // UPDATE (WHILE DISCONNECTED)
+        request(
+            Unirest.put(url("/app/api/v1/tenants/"+tenant+"/widgets/foo"))
+                .body(new JSONObject()
+                    .put("description", "A fooer widget.")), 
+            200, 
+            response -> {});
+        
+        // RESUME (only the events after the last one received are delivered)
+        connection = openEventStream(createdId);
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))
+        ) {
+            assertEquals(": connected", reader.readLine());
+            Map<String,String> event = readEvent(reader);
+            assertEquals("updated", event.get("event"));
+            DocumentContext document = JsonPath.parse(event.get("data"));
+            assertEquals("A fooer widget.", document.read("$.widget.description"));
+            assertTrue(((Number)document.read("$.sequence")).longValue() > createdSequence);
+        } finally {
+            connection.disconnect();
+        }
+    }
+    
+    @Test
+    public void test_Events_WebSocket() throws Exception {
+        WebSocketClient client = new WebSocketClient();
+        client.start();
+        try {
+            // SUBSCRIBE
+            BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+            Session session = openEventSocket(client, null, messages);
+            
+            // CREATE
+            request(
+                Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+                    .body(new JSONObject()
+                        .put("key", "foo")
+                        .put("description", "A fooish widget.")), 
+                200, 
+                response -> {});
+            
+            // The write is delivered to the subscriber
+            String message = messages.poll(10, TimeUnit.SECONDS);
+            assertNotNull("The created event was not delivered.", message);
+            DocumentContext document = JsonPath.parse(message);
+            assertEquals("CREATED", document.read("$.type"));
+            assertEquals("foo", document.read("$.widget.key"));
+            String createdId = document.read("$.id");
+            long createdSequence = ((Number)document.read("$.sequence")).longValue();
+            session.close();
+            
+            // UPDATE (WHILE DISCONNECTED)
+            request(
+                Unirest.put(url("/app/api/v1/tenants/"+tenant+"/widgets/foo"))
+                    .body(new JSONObject()
+                        .put("key", "foo")
+                        .put("description", "A fooer widget.")), 
+                200, 
+                response -> {});
+            
+            // RESUME (only the events after the last one received are delivered)
+            BlockingQueue<String> resumedMessages = new LinkedBlockingQueue<>();
+            session = openEventSocket(client, createdId, resumedMessages);
+            message = resumedMessages.poll(10, TimeUnit.SECONDS);
+            assertNotNull("The updated event was not delivered.", message);
+            document = JsonPath.parse(message);
+            assertEquals("UPDATED", document.read("$.type"));
+            assertEquals("A fooer widget.", document.read("$.widget.description"));
+            assertTrue(((Number)document.read("$.sequence")).longValue() > createdSequence);
+            session.close();
+        } finally {
+            client.stop();
+        }
+    }
+    
+    @Test
+    public void test_Search() throws Exception {
+        // CREATE
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+                .body(new JSONObject()
+                    .put("key", "foo")
+                    .put("description", "A fooish widget.")), 
+            200, 
+            response -> {});
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+                .body(new JSONObject()
+                    .put("key", "bar")
+                    .put("description", "A barish widget.")), 
+            200, 
+            response -> {});
+        
+        // Wait for the search index to finish its initial build
+        long deadline = System.currentTimeMillis()+10000;
+        while (
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets")).queryString("q", "x")
+                .asString().getStatus() == 503
+            && System.currentTimeMillis() < deadline
+        ) {
+            Thread.sleep(100);
+        }
+        request(
+            Unirest.get(url("/app/api/v1/admin/metrics/search-index")), 
+            200, 
+            response -> {
+                assertEquals(true, response.read("$.searchIndex.ready"));
+            });
+        
+        // SEARCH (SUBSTRING)
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets")).queryString("q", "FOOISH"), 
+            200, 
+            response -> {
+                assertEquals(1, ((List)response.read("$.widgets")).size());
+                assertEquals("foo", response.read("$.widgets[0].key"));
+            });
+        
+        // SEARCH (PREFIX)
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+                .queryString("q", "a ")
+                .queryString("match", "prefix"), 
+            200, 
+            response -> {
+                assertEquals(2, ((List)response.read("$.widgets")).size());
+                assertEquals("bar", response.read("$.widgets[0].key"));
+            });
+        
+        // DELETE
+        request(
+            Unirest.delete(url("/app/api/v1/tenants/"+tenant+"/widgets/foo")), 
+            200, 
+            response -> {});
+        
+        // SEARCH
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets")).queryString("q", "fooish"), 
+            200, 
+            response -> {
+                assertEquals(0, ((List)response.read("$.widgets")).size());
+            });
+    }
+    
+    @Test
+    public void test_Fields() throws Exception {
+        // CREATE
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+                .body(new JSONObject()
+                    .put("key", "foo")
+                    .put("description", "A fooish widget.")), 
+            200, 
+            response -> {});
+        
+        // LIST (KEYS ONLY)
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets")).queryString("fields", "key"), 
+            200, 
+            response -> {
+                assertEquals("foo", response.read("$.widgets[0].key"));
+                assertEquals(1, ((Map)response.read("$.widgets[0]")).size());
+            });
+        
+        // RETRIEVE (KEY AND DESCRIPTION)
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets/foo"))
+                .queryString("fields", "key,description"), 
+            200, 
+            response -> {
+                assertEquals("foo", response.read("$.widget.key"));
+                assertEquals("A fooish widget.", response.read("$.widget.description"));
+                assertEquals(2, ((Map)response.read("$.widget")).size());
+            });
+        
+        // RETRIEVE (UNKNOWN FIELD)
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets/foo"))
+                .queryString("fields", "color"), 
+            400, 
+            response -> {});
+    }
+    
+    @Test
+    public void test_Deadlines() throws Exception {
+        // LIST (WITHIN THE CLIENT TIMEOUT)
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+                .header("X-Request-Timeout", "20000"), 
+            200, 
+            response -> {
+                assertEquals(0, ((List)response.read("$.widgets")).size());
+            });
+        
+        // LIST (INVALID CLIENT TIMEOUT)
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+                .header("X-Request-Timeout", "soon"), 
+            400, 
+            response -> {});
+        
+        // CREATE
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+                .body(new JSONObject()
+                    .put("key", "foo")
+                    .put("description", "A fooish widget.")), 
+            200, 
+            response -> {});
+        
+        // UPDATE (CLIENT TIMEOUT EXPIRES BEFORE THE STATEMENTS COMPLETE)
+        request(
+            Unirest.put(url("/app/api/v1/tenants/"+tenant+"/widgets/foo"))
+                .header("X-Request-Timeout", "1")
+                .body(new JSONObject()
+                    .put("description", "A barish widget.")), 
+            504, 
+            response -> {
+                assertTrue(((String)response.read("$.error")).contains("1ms deadline"));
+            });
+    }
+    
+    @Test
+    public void test_Batch() throws Exception {
+        // BATCH
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/batch"))
+                .body("{\"operations\":["
+                    +"{\"op\":\"create\",\"key\":\"foo\","
+                        +"\"widget\":{\"description\":\"A fooish widget.\"}},"
+                    +"{\"op\":\"create\",\"key\":\"bar\","
+                        +"\"widget\":{\"description\":\"A barish widget.\"}},"
+                    +"{\"op\":\"update\",\"key\":\"foo\","
+                        +"\"widget\":{\"description\":\"A bazish widget.\"}},"
+                    +"{\"op\":\"retrieve\",\"key\":\"foo\"},"
+                    +"{\"op\":\"delete\",\"key\":\"bar\"},"
+                    +"{\"op\":\"retrieve\",\"key\":\"bar\"},"
+                    +"{\"op\":\"rename\",\"key\":\"foo\"}"
+                +"]}"),
+            200,
+            response -> {
+                assertEquals(7, ((List)response.read("$.results")).size());
+                assertEquals(200, (int)response.read("$.results[0].status"));
+                assertEquals("A bazish widget.", response.read("$.results[3].widget.description"));
+                assertEquals("bar", response.read("$.results[4].widget.key"));
+                assertEquals(404, (int)response.read("$.results[5].status"));
+                assertEquals(400, (int)response.read("$.results[6].status"));
+            });
+
+        // LIST
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets")),
+            200,
+            response -> {
+                assertEquals(1, ((List)response.read("$.widgets")).size());
+                assertEquals("A bazish widget.", response.read("$.widgets[0].description"));
+            });
+
+        // BATCH (DEADLINE PASSES BEFORE THE OPERATIONS COMPLETE)
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/batch"))
+                .header("X-Request-Timeout", "1")
+                .body("{\"operations\":["
+                    +"{\"op\":\"rename\",\"key\":\"qux\"},"
+                    +"{\"op\":\"create\",\"key\":\"qux\","
+                        +"\"widget\":{\"description\":\"A quxish widget.\"}},"
+                    +"{\"op\":\"update\",\"key\":\"qux\","
+                        +"\"widget\":{\"description\":\"A quxer widget.\"}},"
+                    +"{\"op\":\"update\",\"key\":\"qux\","
+                        +"\"widget\":{\"description\":\"The quxest widget.\"}}"
+                +"]}"),
+            200,
+            response -> {
+                // The completed operation keeps its result
+                assertEquals(400, (int)response.read("$.results[0].status"));
+                assertEquals(504, (int)response.read("$.results[3].status"));
+            });
+    }
+
+    @Test
+    public void test_Encodings() throws Exception {
+        // CREATE (CBOR)
+        HttpResponse<InputStream> response = Unirest
+            .post(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+            .header("Content-Type", "application/cbor")
+            .header("Accept", "application/cbor")
+            .body(Encoding.CBOR.write(ImmutableMap.of(
+                "key", "foo",
+                "description", "A fooish widget.")))
+            .asBinary();
+        assertEquals(200, response.getStatus());
+        assertTrue(response.getHeaders().getFirst("Content-Type").startsWith("application/cbor"));
+        Map widget = (Map)Encoding.CBOR.readMap(ByteStreams.toByteArray(response.getBody()))
+            .get("widget");
+        assertEquals("foo", widget.get("key"));
+
+        // LIST (SMILE)
+        response = Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+            .header("Accept", "application/x-jackson-smile")
+            .asBinary();
+        assertEquals(200, response.getStatus());
+        List widgets = (List)Encoding.SMILE.readMap(ByteStreams.toByteArray(response.getBody()))
+            .get("widgets");
+        assertEquals("A fooish widget.", ((Map)widgets.get(0)).get("description"));
+
+        // RETRIEVE (JSON)
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets/foo"))
+                .header("Accept", "text/html,*/*;q=0.8"),
+            200,
+            json -> {
+                assertEquals("foo", json.read("$.widget.key"));
+            });
+    }
+
+    @Test
+    public void test_Count() throws Exception {
+        // COUNT
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets/count")),
+            200,
+            response -> {
+                assertEquals(0, (int)response.read("$.count"));
+            });
+
+        // CREATE
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets/bulk"))
+                .body("["
+                    +"{\"key\":\"foo\",\"description\":\"A fooish widget.\"},"
+                    +"{\"key\":\"bar\",\"description\":\"A barish widget.\"}"
+                +"]"),
+            200,
+            response -> {});
+
+        // COUNT
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets/count")),
+            200,
+            response -> {
+                assertEquals(2, (int)response.read("$.count"));
+            });
+
+        // UPDATE (RENAME WITHIN THE TENANT)
+        request(
+            Unirest.put(url("/app/api/v1/tenants/"+tenant+"/widgets/bar"))
+                .body(new JSONObject()
+                    .put("key", "baz")),
+            200,
+            response -> {});
+
+        // COUNT
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets/count")),
+            200,
+            response -> {
+                assertEquals(2, (int)response.read("$.count"));
+            });
+
+        // UPDATE (MOVE TO ANOTHER TENANT)
+        request(
+            Unirest.put(url("/app/api/v1/tenants/"+tenant+"/widgets/foo"))
+                .body(new JSONObject()
+                    .put("tenantKey", tenant+"-2")),
+            200,
+            response -> {});
+
+        // DELETE
+        request(
+            Unirest.delete(url("/app/api/v1/tenants/"+tenant+"/widgets/baz")),
+            200,
+            response -> {});
+
+        // COUNT
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets/count")),
+            200,
+            response -> {
+                assertEquals(0, (int)response.read("$.count"));
+            });
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"-2/widgets/count")),
+            200,
+            response -> {
+                assertEquals(1, (int)response.read("$.count"));
+            });
+    }
+
+    @Test
+    public void test_CountReconcile() throws Exception {
+        // CREATE
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets/bulk"))
+                .body("["
+                    +"{\"key\":\"foo\",\"description\":\"A fooish widget.\"},"
+                    +"{\"key\":\"bar\",\"description\":\"A barish widget.\"}"
+                +"]"),
+            200,
+            response -> {});
+
+        // CREATE (OVERWRITING AN EXISTING WIDGET, WHICH COUNTS IT TWICE)
+        request(
+            Unirest.post(url("/app/api/v1/tenants/"+tenant+"/widgets"))
+                .body(new JSONObject()
+                    .put("key", "foo")
+                    .put("description", "A fooish widget.")),
+            200,
+            response -> {});
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets/count")),
+            200,
+            response -> {
+                assertEquals(3, (int)response.read("$.count"));
+            });
+
+        // RECONCILE (INVALID SETTLE DELAY)
+        request(
+            Unirest.post(url("/app/api/v1/admin/widgets/counts/reconcile"))
+                .queryString("settleMillis", -1),
+            400,
+            response -> {});
+
+        // RECONCILE (WHICH RUNS IN THE BACKGROUND)
+        request(
+            Unirest.post(url("/app/api/v1/admin/widgets/counts/reconcile"))
+                .queryString("settleMillis", 0),
+            202,
+            response -> {
+                assertEquals(0, (int)response.read("$.reconcile.settleMillis"));
+            });
+
+        // Wait for the run to complete
+        long deadline = System.currentTimeMillis()+30000;
+        DocumentContext status = JsonPath.parse(
+            Unirest.get(url("/app/api/v1/admin/metrics/widget-counts")).asString().getBody());
+        while (
+            (boolean)status.read("$.reconcile.running")
+            && System.currentTimeMillis() < deadline
+        ) {
+            Thread.sleep(100);
+            status = JsonPath.parse(
+                Unirest.get(url("/app/api/v1/admin/metrics/widget-counts")).asString().getBody());
+        }
+        assertEquals(false, status.read("$.reconcile.running"));
+        assertEquals(true, status.read("$.reconcile.summary.reconciled"));
+        assertTrue((int)status.read("$.reconcile.summary.repaired") >= 1);
+
+        // COUNT
+        request(
+            Unirest.get(url("/app/api/v1/tenants/"+tenant+"/widgets/count")),
+            200,
+            response -> {
+                assertEquals(2, (int)response.read("$.count"));
+            });
+    }
+
     /*----------------------------------------------------------------------------------------------
      * HELPER METHODS
      *--------------------------------------------------------------------------------------------*/
@@ -141,5 +772,54 @@ public class ExampleAppE2ETest extends E2ETestBase {
             response.getStatus());
         consumer.accept(JsonPath.parse(response.getBody()));
     }
+    
+    protected HttpURLConnection openEventStream(String lastEventId) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL(
+            url("/app/api/v1/tenants/"+tenant+"/widgets/events")).openConnection();
+        connection.setReadTimeout(10000);
+        if (lastEventId != null) {
+            connection.setRequestProperty("Last-Event-ID", lastEventId);
+        }
+        assertEquals(200, connection.getResponseCode());
+        return connection;
+    }
+    
+    /**
+     * Reads the next Server-Sent Event (skipping comments such as heartbeats), returning its
+     * fields by name.
+     */
+    protected Map<String,String> readEvent(BufferedReader reader) throws IOException {
+        Map<String,String> fields = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                if (fields.containsKey("event")) {
+                    return fields;
+                }
+            } else if (!line.startsWith(":")) {
+                int separatorIndex = line.indexOf(": ");
+                fields.put(line.substring(0, separatorIndex), line.substring(separatorIndex+2));
+            }
+        }
+        throw new AssertionError("The event stream ended before an event was received.");
+    }
+    
+    protected Session openEventSocket(
+        WebSocketClient client,
+        String since,
+        BlockingQueue<String> messages
+    ) throws Exception {
+        String uri = url("/app/api/v1/tenants/"+tenant+"/widgets/events")
+            .replaceFirst("^http", "ws")
+            + ((since == null) ? "" : "?since="+URLEncoder.encode(since, "UTF-8"));
+        return client
+            .connect(new WebSocketAdapter() {
+                @Override
+                public void onWebSocketText(String message) {
+                    messages.add(message);
+                }
+            }, URI.create(uri))
+            .get(10, TimeUnit.SECONDS);
+    }
 
 }
@@ -0,0 +1,139 @@
+package com.kineticdata.examples.javalin.accesslog;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AccessLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /*----------------------------------------------------------------------------------------------
+     * TESTS
+     *--------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void test_Writes() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("logs/access.log");
+        AccessLog accessLog = new AccessLog(path, 16, 1, 1024 * 1024, 1);
+        accessLog.record("GET", "/tenants/:tenantKey/widgets", "/tenants/acme/widgets", 200, 5, 10);
+        accessLog.record("GET", "/version", "/version", 404, 5, 10);
+        accessLog.close();
+
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("\"tenant\":\"acme\",\"path\":\"/tenants/acme/widgets\""));
+        assertTrue(lines.get(1).contains("\"tenant\":null"));
+        assertEquals(2L, accessLog.getMetrics().get("written"));
+    }
+
+    @Test
+    public void test_DropsWhenFull() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("access.log");
+        AccessLog accessLog = new AccessLog(path, 2, 1, 1024 * 1024 * 1024, 1);
+        // The writer can't keep up with a tight loop through a two slot ring
+        int count = 100000;
+        for (int i = 0; i < count; i++) {
+            accessLog.record("GET", "/version", "/version", 200, 5, 10);
+        }
+        accessLog.close();
+
+        Map<String,Object> metrics = accessLog.getMetrics();
+        long recorded = (Long)metrics.get("recorded");
+        long dropped = (Long)metrics.get("dropped");
+        assertTrue("No records were dropped.", dropped > 0);
+        assertEquals(count, recorded + dropped);
+        // Every record that wasn't dropped is written
+        assertEquals(recorded, metrics.get("written"));
+        assertEquals(recorded, Files.readAllLines(path, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void test_Samples() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("access.log");
+        AccessLog accessLog = new AccessLog(path, 16, 0, 1024 * 1024, 1);
+        for (int i = 0; i < 10; i++) {
+            accessLog.record("GET", "/version", "/version", 200, 5, 10);
+        }
+        // Server errors are recorded regardless of the sample rate
+        accessLog.record("GET", "/version", "/version", 500, 5, 10);
+        accessLog.close();
+
+        Map<String,Object> metrics = accessLog.getMetrics();
+        assertEquals(10L, metrics.get("sampledOut"));
+        assertEquals(1L, metrics.get("recorded"));
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("\"status\":500"));
+    }
+
+    @Test
+    public void test_Rotates() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("access.log");
+        AccessLog accessLog = new AccessLog(path, 16, 1, 256, 2);
+        for (int i = 0; i < 20; i++) {
+            accessLog.record("GET", "/version", "/version", 200, 5, 10);
+            // Let the writer catch up, so each record is written (and rotated) on its own
+            waitForWritten(accessLog, i + 1);
+        }
+        accessLog.close();
+
+        Map<String,Object> metrics = accessLog.getMetrics();
+        assertTrue("The file was not rotated.", (Long)metrics.get("rotations") > 2);
+        assertEquals(0L, metrics.get("writeErrors"));
+        // Only the configured number of rotated files are kept, and lines are never split
+        for (Path file : new Path[] {path, sibling(path, 1), sibling(path, 2)}) {
+            assertTrue(file+" does not exist.", Files.exists(file));
+            assertTrue(file+" is too large.", Files.size(file) <= 256);
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                assertTrue(line.startsWith("{") && line.endsWith("}"));
+            }
+        }
+        assertFalse(Files.exists(sibling(path, 3)));
+    }
+
+    @Test
+    public void test_Disabled() throws Exception {
+        AccessLog accessLog = AccessLog.disabled();
+        accessLog.record("GET", "/version", "/version", 500, 5, 10);
+        accessLog.close();
+
+        Map<String,Object> metrics = accessLog.getMetrics();
+        assertEquals(false, metrics.get("enabled"));
+        assertEquals(0L, metrics.get("recorded"));
+    }
+
+    @Test(expected = IOException.class)
+    public void test_Unwritable() throws Exception {
+        // The parent of the log file is a regular file, so the directory can't be created
+        Path parent = folder.newFile("logs").toPath();
+        new AccessLog(parent.resolve("access.log"), 16, 1, 1024 * 1024, 1);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    protected static void waitForWritten(AccessLog accessLog, long count) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((Long)accessLog.getMetrics().get("written") < count) {
+            assertTrue("The records were not written.", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    protected static Path sibling(Path path, int index) {
+        return path.resolveSibling(path.getFileName()+"."+index);
+    }
+
+}
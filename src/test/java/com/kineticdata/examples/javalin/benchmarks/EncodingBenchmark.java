@@ -0,0 +1,92 @@
+package com.kineticdata.examples.javalin.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.kineticdata.examples.javalin.encodings.Encoding;
+import com.kineticdata.examples.javalin.models.Widget;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Compares the size of the encoded widget payloads, and the CPU time spent encoding and decoding
+ * them, for each of the supported encodings (see Encoding).
+ *
+ * This is not a unit test (and does not require Cassandra); it encodes and decodes a single widget
+ * response and a list response in a loop on the current thread, after a warm up pass:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.kineticdata.examples.javalin.benchmarks.EncodingBenchmark \
+ *     -Diterations=200000 -DlistSize=100
+ * </pre>
+ *
+ * Decoding parses the payload into maps (as the update action does), so the results measure the
+ * cost of the format rather than of binding to a particular class.
+ */
+public class EncodingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = Integer.getInteger("iterations", 200000);
+        int listSize = Integer.getInteger("listSize", 100);
+
+        // Prepare the payloads (shaped like the retrieve and list responses)
+        ImmutableList.Builder<Widget> widgets = ImmutableList.builder();
+        for (int i = 0; i < listSize; i++) {
+            widgets.add(new Widget(
+                "benchmark",
+                "widget-"+i,
+                "Benchmark widget "+i+", which is described in a sentence or two."));
+        }
+        Object widgetPayload = ImmutableMap.of("widget", widgets.build().get(0));
+        Object listPayload = ImmutableMap.of("widgets", widgets.build());
+
+        // Warm up, then measure each encoding
+        for (Encoding encoding : Encoding.values()) {
+            measure(encoding, widgetPayload, iterations / 10);
+            measure(encoding, listPayload, iterations / listSize / 10);
+        }
+        System.out.println(String.format("%-8s %-7s %8s %12s %12s",
+            "encoding", "payload", "bytes", "encode ns", "decode ns"));
+        for (Encoding encoding : Encoding.values()) {
+            print(encoding, "widget", measure(encoding, widgetPayload, iterations));
+            print(encoding, "list", measure(encoding, listPayload, iterations / listSize));
+        }
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private static long[] measure(
+        Encoding encoding,
+        Object payload,
+        int iterations
+    ) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        iterations = Math.max(1, iterations);
+        // Encode
+        byte[] bytes = null;
+        long start = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < iterations; i++) {
+            bytes = encoding.write(payload);
+        }
+        long encodeNanos = threads.getCurrentThreadCpuTime() - start;
+        // Decode
+        long checksum = 0;
+        start = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < iterations; i++) {
+            checksum += encoding.readMap(bytes).size();
+        }
+        long decodeNanos = threads.getCurrentThreadCpuTime() - start;
+        if (checksum != iterations) {
+            throw new IllegalStateException("Unexpected decoded payload.");
+        }
+        return new long[] { bytes.length, encodeNanos / iterations, decodeNanos / iterations };
+    }
+
+    private static void print(Encoding encoding, String payload, long[] result) {
+        System.out.println(String.format("%-8s %-7s %8d %12d %12d",
+            encoding.name().toLowerCase(), payload, result[0], result[1], result[2]));
+    }
+
+}
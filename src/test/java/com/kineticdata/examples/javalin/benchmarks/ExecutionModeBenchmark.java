@@ -0,0 +1,170 @@
+package com.kineticdata.examples.javalin.benchmarks;
+
+import com.kineticdata.examples.javalin.ExampleApp;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static testing.kineticdata.examples.javalin.E2ETestBase.url;
+
+/**
+ * Compares the "async" and "virtual" execution modes (see ExampleApp.EXECUTION_MODE_PROPERTY).
+ *
+ * This is not a unit test; it starts the application in-process (so Cassandra must be running, as
+ * it must be for the E2E tests), seeds a tenant with widgets and then drives a closed loop of
+ * retrieve (80%) and list (20%) requests from a fixed number of client threads.  Run it once per
+ * mode and compare the results:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.kineticdata.examples.javalin.benchmarks.ExecutionModeBenchmark \
+ *     -DexecutionMode=virtual -Dconcurrency=256 -Dseconds=30
+ * </pre>
+ *
+ * Memory per in-flight request is the growth of the live heap (measured after a full GC half way
+ * through the run) divided by the concurrency.  Virtual thread stacks live on the heap and are
+ * included; platform thread stacks do not, so the peak thread count is reported alongside it.
+ */
+public class ExecutionModeBenchmark {
+
+    private static final int WIDGET_COUNT = 100;
+
+    public static void main(String[] args) throws Exception {
+        String mode = System.getProperty(
+            ExampleApp.EXECUTION_MODE_PROPERTY, 
+            ExampleApp.EXECUTION_MODE_ASYNC);
+        int concurrency = Integer.getInteger("concurrency", 256);
+        int seconds = Integer.getInteger("seconds", 30);
+        // Allow the client to keep a connection alive for each of its threads
+        System.setProperty("http.maxConnections", String.valueOf(concurrency));
+
+        // Start the application
+        CompletableFuture<Void> startupFuture = new CompletableFuture<>();
+        Thread applicationThread = new Thread(() -> {
+            ExampleApp.start(() -> startupFuture.complete(null));
+        });
+        applicationThread.setDaemon(true);
+        applicationThread.start();
+        startupFuture.get(30, TimeUnit.SECONDS);
+
+        // Seed the widgets
+        String tenant = "benchmark-"+System.currentTimeMillis();
+        for (int i = 0; i < WIDGET_COUNT; i++) {
+            send("POST", url("/app/api/v1/tenants/"+tenant+"/widgets"),
+                "{\"key\":\"widget-"+i+"\",\"description\":\"Benchmark widget "+i+".\"}");
+        }
+        long idleHeap = liveHeap();
+
+        // Drive the load
+        long endTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicLong errors = new AtomicLong();
+        List<long[]> latencies = new ArrayList<>();
+        List<Thread> clients = new ArrayList<>();
+        for (int c = 0; c < concurrency; c++) {
+            long[][] clientLatencies = new long[][] { new long[1024] };
+            int[] clientCount = new int[1];
+            Thread client = new Thread(() -> {
+                while (System.nanoTime() < endTime) {
+                    String path = (ThreadLocalRandom.current().nextInt(5) == 0)
+                        ? "/app/api/v1/tenants/"+tenant+"/widgets?limit=20"
+                        : "/app/api/v1/tenants/"+tenant+"/widgets/widget-"
+                            +ThreadLocalRandom.current().nextInt(WIDGET_COUNT);
+                    long start = System.nanoTime();
+                    try {
+                        send("GET", url(path), null);
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                        continue;
+                    }
+                    if (clientCount[0] == clientLatencies[0].length) {
+                        clientLatencies[0] = Arrays.copyOf(clientLatencies[0], clientCount[0] * 2);
+                    }
+                    clientLatencies[0][clientCount[0]++] = System.nanoTime() - start;
+                }
+                synchronized (latencies) {
+                    latencies.add(Arrays.copyOf(clientLatencies[0], clientCount[0]));
+                }
+            });
+            clients.add(client);
+            client.start();
+        }
+        // Measure the live heap and thread count half way through the run
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds) / 2);
+        long loadedHeap = liveHeap();
+        int loadedThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        for (Thread client : clients) {
+            client.join();
+        }
+
+        // Report the results
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.println("Execution mode:            "+mode);
+        System.out.println("Concurrency:               "+concurrency);
+        System.out.println("Requests:                  "+all.length+" ("+errors.get()+" errors)");
+        System.out.println("Throughput:                "+(all.length / seconds)+" requests/s");
+        System.out.println("Latency p50:               "+millis(percentile(all, 0.50))+" ms");
+        System.out.println("Latency p99:               "+millis(percentile(all, 0.99))+" ms");
+        System.out.println("Latency p99.9:             "+millis(percentile(all, 0.999))+" ms");
+        System.out.println("Heap per in-flight request: "
+            +((loadedHeap - idleHeap) / concurrency / 1024)+" KiB");
+        System.out.println("Threads under load:        "+loadedThreads);
+        System.exit(0);
+    }
+
+    private static String send(String method, String url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        // Fully read the response so that the connection can be reused
+        try (InputStream inputStream = (status < 400)
+            ? connection.getInputStream()
+            : connection.getErrorStream()
+        ) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while (inputStream != null && (read = inputStream.read(buffer)) > 0) {
+                result.write(buffer, 0, read);
+            }
+            if (status >= 400) {
+                throw new IOException("Unexpected response status: "+status);
+            }
+            return new String(result.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static long liveHeap() throws InterruptedException {
+        System.gc();
+        Thread.sleep(500);
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return (sorted.length == 0)
+            ? 0
+            : sorted[Math.min(sorted.length - 1, (int)(sorted.length * percentile))];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1000000.0);
+    }
+
+}
@@ -0,0 +1,288 @@
+package com.kineticdata.examples.javalin.daos;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.PagingState;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Streams the rows of a fake result set (which serves a fixed number of pages, one fetch at a
+ * time, the way the driver does) through WidgetDao.asynchronouslyStream, so the paging behavior
+ * can be checked without Cassandra.
+ */
+public class WidgetDaoStreamTest {
+
+    /*----------------------------------------------------------------------------------------------
+     * TESTS
+     *--------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void test_StreamsEveryRowOnce() throws Exception {
+        FakeResultSet resultSet = new FakeResultSet(5, 4, true);
+        PagingMetrics pagingMetrics = new PagingMetrics();
+        List<Row> rows = stream(resultSet, new PagingOptions(4, 0, 0), pagingMetrics);
+
+        assertEquals(resultSet.rows, rows);
+        assertEquals(4L, pagingMetrics.toMap().get("pagesFetched"));
+        assertEquals(0L, pagingMetrics.toMap().get("pagesReadAhead"));
+        assertEquals(4L, pagingMetrics.toMap().get("stalls"));
+    }
+
+    @Test
+    public void test_StreamsEveryRowOnce_WithoutPagingOptions() throws Exception {
+        FakeResultSet resultSet = new FakeResultSet(3, 2, true);
+        PagingMetrics pagingMetrics = new PagingMetrics();
+        List<Row> rows = stream(resultSet, PagingOptions.NONE, pagingMetrics);
+
+        assertEquals(resultSet.rows, rows);
+        assertEquals(2L, pagingMetrics.toMap().get("pagesFetched"));
+        assertEquals(0L, pagingMetrics.toMap().get("pagesReadAhead"));
+    }
+
+    @Test
+    public void test_ReadsAhead() throws Exception {
+        FakeResultSet resultSet = new FakeResultSet(5, 4, true);
+        PagingMetrics pagingMetrics = new PagingMetrics();
+        List<Row> rows = stream(resultSet, new PagingOptions(4, 2, 1), pagingMetrics);
+
+        assertEquals(resultSet.rows, rows);
+        // Every page after the first is requested before the previous page has been consumed, so
+        // the stream never has to wait for one
+        assertEquals(4L, pagingMetrics.toMap().get("pagesFetched"));
+        assertEquals(4L, pagingMetrics.toMap().get("pagesReadAhead"));
+        assertEquals(0L, pagingMetrics.toMap().get("stalls"));
+    }
+
+    @Test
+    public void test_ReportsCompletedPages() throws Exception {
+        FakeResultSet resultSet = new FakeResultSet(3, 4, true);
+        List<Integer> rowCounts = new ArrayList<>();
+        List<PagingState> pagingStates = new ArrayList<>();
+        WidgetDao
+            .asynchronouslyStream(
+                CompletableFuture.completedFuture(resultSet),
+                new ArrayList<Row>(),
+                (memo, row) -> {
+                    memo.add(row);
+                    return true;
+                },
+                (memo, pagingState) -> {
+                    rowCounts.add(memo.size());
+                    pagingStates.add(pagingState);
+                },
+                new PagingOptions(4, 2, 1),
+                null,
+                null)
+            .get(10, TimeUnit.SECONDS);
+
+        // Each page is reported once all of its rows (and none of the next page's) have been
+        // consumed, with the paging state that resumes after it
+        assertEquals(3, rowCounts.size());
+        assertEquals(Integer.valueOf(4), rowCounts.get(0));
+        assertEquals(Integer.valueOf(8), rowCounts.get(1));
+        assertEquals(Integer.valueOf(12), rowCounts.get(2));
+        assertSame(resultSet.pagingStates.get(0), pagingStates.get(0));
+        assertSame(resultSet.pagingStates.get(1), pagingStates.get(1));
+        assertNull(pagingStates.get(2));
+    }
+
+    @Test
+    public void test_CancelsReadAheadWhenStopped() throws Exception {
+        FakeResultSet resultSet = new FakeResultSet(3, 4, false);
+        List<Row> rows = WidgetDao
+            .asynchronouslyStream(
+                CompletableFuture.completedFuture(resultSet),
+                new ArrayList<Row>(),
+                (memo, row) -> {
+                    memo.add(row);
+                    return memo.size() < 2;
+                },
+                null,
+                new PagingOptions(4, 4, 1),
+                null,
+                null)
+            .get(10, TimeUnit.SECONDS);
+
+        // The next page was requested ahead, but is no longer needed once the stream stops
+        assertEquals(resultSet.rows.subList(0, 2), rows);
+        assertEquals(1, resultSet.fetches.size());
+        assertTrue(resultSet.fetches.get(0).isCancelled());
+    }
+
+    @Test
+    public void test_CancelsReadAheadWhenFailed() throws Exception {
+        FakeResultSet resultSet = new FakeResultSet(3, 4, false);
+        CompletableFuture<List<Row>> future = WidgetDao.asynchronouslyStream(
+            CompletableFuture.completedFuture(resultSet),
+            new ArrayList<Row>(),
+            (memo, row) -> {
+                throw new IllegalStateException("The row could not be processed.");
+            },
+            null,
+            new PagingOptions(4, 4, 1),
+            null,
+            null);
+
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(1, resultSet.fetches.size());
+        assertTrue(resultSet.fetches.get(0).isCancelled());
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    protected List<Row> stream(
+        FakeResultSet resultSet,
+        PagingOptions pagingOptions,
+        PagingMetrics pagingMetrics
+    ) throws Exception {
+        return WidgetDao
+            .allRows(
+                CompletableFuture.completedFuture(resultSet),
+                pagingOptions,
+                pagingMetrics,
+                null)
+            .get(10, TimeUnit.SECONDS);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * A result set of pageCount pages of pageSize rows.  Like the driver's result sets, the rows
+     * of every page that has been fetched are buffered together, only one page can be fetched at a
+     * time, and the execution info reports the paging state of the last page fetched.  Fetches are
+     * either completed immediately or left pending (so that they can be checked for cancellation).
+     */
+    protected static class FakeResultSet implements ResultSet {
+        private final List<Row> rows = new ArrayList<>();
+        private final List<PagingState> pagingStates = new ArrayList<>();
+        private final List<SettableFuture<ResultSet>> fetches = new ArrayList<>();
+        private final int pageSize;
+        private final boolean completeFetches;
+        private int fetchedPages = 1;
+        private int consumedRows = 0;
+
+        public FakeResultSet(int pageCount, int pageSize, boolean completeFetches) {
+            this.pageSize = pageSize;
+            this.completeFetches = completeFetches;
+            for (int i = 0; i < pageCount * pageSize; i++) {
+                rows.add(row(i));
+            }
+            for (int i = 1; i < pageCount; i++) {
+                pagingStates.add(PagingState.fromBytes(new byte[] {0, 1, 0, 0, (byte)i}));
+            }
+        }
+
+        @Override
+        public Row one() {
+            return (consumedRows < fetchedPages * pageSize) ? rows.get(consumedRows++) : null;
+        }
+
+        @Override
+        public int getAvailableWithoutFetching() {
+            return fetchedPages * pageSize - consumedRows;
+        }
+
+        @Override
+        public boolean isFullyFetched() {
+            return fetchedPages > pagingStates.size();
+        }
+
+        @Override
+        public boolean isExhausted() {
+            return isFullyFetched() && getAvailableWithoutFetching() == 0;
+        }
+
+        @Override
+        public ListenableFuture<ResultSet> fetchMoreResults() {
+            if (isFullyFetched()) {
+                return Futures.immediateFuture(this);
+            }
+            SettableFuture<ResultSet> fetch = SettableFuture.create();
+            fetches.add(fetch);
+            if (completeFetches) {
+                fetchedPages++;
+                fetch.set(this);
+            }
+            return fetch;
+        }
+
+        @Override
+        public ExecutionInfo getExecutionInfo() {
+            PagingState pagingState = isFullyFetched() ? null : pagingStates.get(fetchedPages - 1);
+            return new ExecutionInfo(0, 0, Collections.emptyList(), null, null) {
+                @Override
+                public PagingState getPagingState() {
+                    return pagingState;
+                }
+                @Override
+                public Statement getStatement() {
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        public List<ExecutionInfo> getAllExecutionInfo() {
+            return Collections.singletonList(getExecutionInfo());
+        }
+
+        @Override
+        public List<Row> all() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterator<Row> iterator() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ColumnDefinitions getColumnDefinitions() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean wasApplied() {
+            return true;
+        }
+
+        /**
+         * Returns a row that is only equal to itself (and is described by its position).
+         */
+        private static Row row(int position) {
+            return (Row)Proxy.newProxyInstance(
+                Row.class.getClassLoader(),
+                new Class<?>[] {Row.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals": return proxy == args[0];
+                        case "hashCode": return System.identityHashCode(proxy);
+                        case "toString": return "Row "+position;
+                        default: throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        }
+    }
+
+}